@@ -0,0 +1,113 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.TableRowJsonCoder;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.gson.JsonParseException;
+
+/**
+ * Compares the compact row coder with the JSON coder of the SDK, on the annotated rows of the corpus
+ * <p>
+ * The setup prints the encoded size of the corpus with both coders. Round trips are checked by
+ * CoderRoundTripTest.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoderBenchmark {
+
+    private Coder<TableRow> jsonCoder;
+    private Coder<TableRow> compactCoder;
+    private List<TableRow> rows;
+    private List<byte[]> jsonRows;
+    private List<byte[]> compactRows;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        jsonCoder = TableRowJsonCoder.of();
+        compactCoder = CompactTableRowCoder.of(TwitterProcessor.ANNOTATED_TWEETS_TABLE_SCHEMA);
+        TweetTranscoder transcoder = new TweetTranscoder(TwitterProcessor.createTableSchema(TwitterProcessor.TWEETS_TABLE_SCHEMA));
+
+        rows = new ArrayList<TableRow>();
+        jsonRows = new ArrayList<byte[]>();
+        compactRows = new ArrayList<byte[]>();
+        long jsonSize = 0;
+        long compactSize = 0;
+        for (String message : TransformBenchmark.loadCorpus()) {
+            TableRow row;
+            try {
+                row = new Tweet(transcoder.transcode(message), true).toAnnotatedRow(0.4f, 1.2f);
+            } catch (JsonParseException e) {
+                continue;
+            }
+            byte[] json = CoderUtils.encodeToByteArray(jsonCoder, row);
+            byte[] compact = CoderUtils.encodeToByteArray(compactCoder, row);
+            rows.add(row);
+            jsonRows.add(json);
+            compactRows.add(compact);
+            jsonSize += json.length;
+            compactSize += compact.length;
+        }
+        System.out.printf("%nEncoded size of %d rows: JSON %d bytes, compact %d bytes (%.1f%%)%n", rows.size(), jsonSize, compactSize, 100.0 * compactSize / jsonSize);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return CoderUtils.encodeToByteArray(jsonCoder, rows.get(nextIndex(rows.size())));
+    }
+
+    @Benchmark
+    public byte[] encodeCompact() throws IOException {
+        return CoderUtils.encodeToByteArray(compactCoder, rows.get(nextIndex(rows.size())));
+    }
+
+    @Benchmark
+    public TableRow decodeJson() throws IOException {
+        return CoderUtils.decodeFromByteArray(jsonCoder, jsonRows.get(nextIndex(jsonRows.size())));
+    }
+
+    @Benchmark
+    public TableRow decodeCompact() throws IOException {
+        return CoderUtils.decodeFromByteArray(compactCoder, compactRows.get(nextIndex(compactRows.size())));
+    }
+
+    private int nextIndex(int size) {
+        next = (next + 1) % size;
+        return next;
+    }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+/**
+ * Benchmarks of the per-tweet transforms of the pipeline
+ * <p>
+ * Tweets come from a corpus of captured messages (retweets, quoted, extended and geo-tagged tweets,
+ * nulls in deep nesting, stream notices) and each operation processes the next tweet of the corpus.
+ * Run with {@code mvn -Pbenchmarks compile exec:exec}; the gc profiler reports bytes allocated per
+ * operation.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransformBenchmark {
+
+    private static final String CORPUS = "tweets-corpus.jsonl";
+
+    private List<String> messages;
+    private List<TableRow> rows;
+    private List<String> texts;
+    private List<String> dates;
+    private TableSchema schema;
+    private TweetTranscoder transcoder;
+    private TweetFilter filter;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        messages = loadCorpus();
+        schema = TwitterProcessor.createTableSchema(TwitterProcessor.TWEETS_TABLE_SCHEMA);
+        transcoder = new TweetTranscoder(schema);
+        filter = TweetFilter.of("blackfriday", "en");
+
+        rows = new ArrayList<TableRow>();
+        texts = new ArrayList<String>();
+        dates = new ArrayList<String>();
+        for (String message : messages) {
+            TableRow row = transcoder.transcode(message);
+            rows.add(row);
+            if (row.get("text") != null) {
+                texts.add((String) row.get("text"));
+            }
+            JsonElement createdAt = new JsonParser().parse(message).getAsJsonObject().get("created_at");
+            if (createdAt != null) {
+                dates.add(createdAt.getAsString());
+            }
+        }
+    }
+
+    @Benchmark
+    public TableRow transcode() {
+        return transcoder.transcode(messages.get(nextIndex(messages.size())));
+    }
+
+    @Benchmark
+    public boolean filterMessage() {
+        return filter.acceptMessage(messages.get(nextIndex(messages.size())));
+    }
+
+    @Benchmark
+    public boolean filterRow() {
+        TableRow row = rows.get(nextIndex(rows.size()));
+        return filter.accept((String) row.get("text"), (String) row.get("lang"));
+    }
+
+    @Benchmark
+    public String normalizeText() {
+        return SentimentCache.normalize(texts.get(nextIndex(texts.size())));
+    }
+
+    @Benchmark
+    public String formatDate() {
+        return TweetTranscoder.formatDate(dates.get(nextIndex(dates.size())));
+    }
+
+    @Benchmark
+    public TableSchema createTableSchema() throws IOException {
+        return TwitterProcessor.createTableSchema(TwitterProcessor.TWEETS_TABLE_SCHEMA);
+    }
+
+    @Benchmark
+    public TweetTranscoder compileTranscoder() {
+        return new TweetTranscoder(schema);
+    }
+
+    private int nextIndex(int size) {
+        next = (next + 1) % size;
+        return next;
+    }
+
+    /**
+     * Loads the corpus, one JSON message per line
+     */
+    static List<String> loadCorpus() throws IOException {
+        List<String> messages = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(TransformBenchmark.class.getResourceAsStream(CORPUS), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    messages.add(line);
+                }
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,116 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate counts of the most frequent values of a stream, based on the Space-Saving algorithm
+ * <p>
+ * At most {@code capacity} values are tracked: a new value replaces the least frequent one and
+ * inherits its count. Counts are over-estimated by at most the count of the least frequent value,
+ * and any value more frequent than that is guaranteed to be tracked. Summaries can be merged, so
+ * they can be used as accumulators of a combiner.
+ */
+class ApproximateTopK implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final Comparator<Map.Entry<String, Long>> BY_COUNT = new Comparator<Map.Entry<String, Long>>() {
+        @Override
+        public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+            int byCount = b.getValue().compareTo(a.getValue());
+            return byCount != 0 ? byCount : a.getKey().compareTo(b.getKey());
+        }
+    };
+
+    private final int capacity;
+    private HashMap<String, Long> counts = new HashMap<String, Long>();
+
+    ApproximateTopK(int capacity) {
+        this.capacity = capacity;
+    }
+
+    void add(String value) {
+        Long count = counts.get(value);
+        if (count != null) {
+            counts.put(value, count + 1);
+        } else if (counts.size() < capacity) {
+            counts.put(value, 1L);
+        } else {
+            Map.Entry<String, Long> min = minEntry();
+            counts.remove(min.getKey());
+            counts.put(value, min.getValue() + 1);
+        }
+    }
+
+    /**
+     * Merges another summary into this one
+     * <p>
+     * A value missing from one of the summaries may have been evicted from it, so it is credited with
+     * the smallest count of that summary, if full.
+     */
+    void merge(ApproximateTopK other) {
+        long minCount = counts.size() < capacity ? 0 : minEntry().getValue();
+        long otherMinCount = other.counts.size() < other.capacity ? 0 : other.minEntry().getValue();
+        HashMap<String, Long> merged = new HashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            Long otherCount = other.counts.get(entry.getKey());
+            merged.put(entry.getKey(), entry.getValue() + (otherCount != null ? otherCount : otherMinCount));
+        }
+        for (Map.Entry<String, Long> entry : other.counts.entrySet()) {
+            if (!counts.containsKey(entry.getKey())) {
+                merged.put(entry.getKey(), entry.getValue() + minCount);
+            }
+        }
+        if (merged.size() > capacity) {
+            merged = new HashMap<String, Long>(top(merged, capacity));
+        }
+        counts = merged;
+    }
+
+    /**
+     * Returns the k most frequent values with their approximate counts, most frequent first
+     */
+    Map<String, Long> top(int k) {
+        return top(counts, k);
+    }
+
+    private static Map<String, Long> top(Map<String, Long> counts, int k) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>(counts.entrySet());
+        Collections.sort(entries, BY_COUNT);
+        Map<String, Long> top = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(k, entries.size()))) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    private Map.Entry<String, Long> minEntry() {
+        Map.Entry<String, Long> min = null;
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            if (min == null || entry.getValue() < min.getValue()) {
+                min = entry;
+            }
+        }
+        return min;
+    }
+}
@@ -0,0 +1,337 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.coders.CustomCoder;
+
+/**
+ * Compact binary coder for TableRows, compiled from the TableSchema of their table
+ * <p>
+ * Instead of the JSON text of the row, with the names of all its fields, each record is written as:
+ * <ul>
+ * <li>a bitmap of the fields of the schema that are present, so that sparse records cost one bit
+ * per missing field;</li>
+ * <li>the values of the present fields, in the order of the schema, each one as a type tag followed
+ * by its payload (e.g. zigzag varints for integers, length-prefixed UTF-8 for strings);</li>
+ * <li>the fields that are not part of the schema, by name.</li>
+ * </ul>
+ * Any row can be encoded, whatever its fields, and values keep their Java type. The encoding is
+ * self-delimiting, so it is the same in the outer and nested contexts.
+ */
+public class CompactTableRowCoder extends CustomCoder<TableRow> {
+    private static final long serialVersionUID = 1L;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_LONG = 2;
+    private static final int TAG_INTEGER = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_FLOAT = 5;
+    private static final int TAG_TRUE = 6;
+    private static final int TAG_FALSE = 7;
+    private static final int TAG_DECIMAL = 8;
+    private static final int TAG_LIST = 9;
+    private static final int TAG_RECORD = 10;
+    private static final int TAG_MAP = 11;
+
+    private final String schema;
+
+    private transient volatile RecordSchema root;
+
+    private CompactTableRowCoder(String schema) {
+        this.schema = schema;
+    }
+
+    /**
+     * Creates a coder for the rows of a table, given the JSON representation of its schema
+     */
+    public static CompactTableRowCoder of(String schema) {
+        return new CompactTableRowCoder(schema);
+    }
+
+    /**
+     * The fields of a record of the schema, by ordinal
+     */
+    private static final class RecordSchema {
+        private final String[] names;
+        private final RecordSchema[] nested;
+        private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+
+        private RecordSchema(List<TableFieldSchema> fields) {
+            names = new String[fields.size()];
+            nested = new RecordSchema[fields.size()];
+            for (int i = 0; i < names.length; i++) {
+                TableFieldSchema field = fields.get(i);
+                names[i] = field.getName();
+                nested[i] = field.getFields() != null ? new RecordSchema(field.getFields()) : null;
+                ordinals.put(names[i], i);
+            }
+        }
+    }
+
+    private RecordSchema getRoot() throws IOException {
+        if (root == null) {
+            TableSchema tableSchema = TwitterProcessor.createTableSchema(schema);
+            root = new RecordSchema(tableSchema.getFields());
+        }
+        return root;
+    }
+
+    @Override
+    public void encode(TableRow value, OutputStream outStream, Context context) throws CoderException, IOException {
+        writeRecord(outStream, value, getRoot());
+    }
+
+    @Override
+    public TableRow decode(InputStream inStream, Context context) throws CoderException, IOException {
+        return readRecord(inStream, getRoot());
+    }
+
+    private static void writeRecord(OutputStream out, Map<?, ?> record, RecordSchema schema) throws IOException {
+        Object[] values = new Object[schema.names.length];
+        byte[] bitmap = new byte[(schema.names.length + 7) / 8];
+        List<Map.Entry<?, ?>> extraFields = null;
+        for (Map.Entry<?, ?> entry : record.entrySet()) {
+            Integer ordinal = schema.ordinals.get(entry.getKey());
+            if (ordinal != null) {
+                values[ordinal] = entry.getValue();
+                bitmap[ordinal >>> 3] |= 1 << (ordinal & 7);
+            } else {
+                if (extraFields == null) {
+                    extraFields = new ArrayList<Map.Entry<?, ?>>();
+                }
+                extraFields.add(entry);
+            }
+        }
+        out.write(bitmap);
+        for (int ordinal = 0; ordinal < values.length; ordinal++) {
+            if ((bitmap[ordinal >>> 3] & (1 << (ordinal & 7))) != 0) {
+                writeValue(out, values[ordinal], schema.nested[ordinal]);
+            }
+        }
+        writeVarLong(out, extraFields == null ? 0 : extraFields.size());
+        if (extraFields != null) {
+            for (Map.Entry<?, ?> entry : extraFields) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue(), null);
+            }
+        }
+    }
+
+    private static void writeValue(OutputStream out, Object value, RecordSchema schema) throws IOException {
+        if (value == null) {
+            out.write(TAG_NULL);
+        } else if (value instanceof String) {
+            out.write(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Long) {
+            out.write(TAG_LONG);
+            writeVarLong(out, zigzag((Long) value));
+        } else if (value instanceof Integer) {
+            out.write(TAG_INTEGER);
+            writeVarLong(out, zigzag((Integer) value));
+        } else if (value instanceof Double) {
+            out.write(TAG_DOUBLE);
+            writeFixedLong(out, Double.doubleToLongBits((Double) value), 8);
+        } else if (value instanceof Float) {
+            out.write(TAG_FLOAT);
+            writeFixedLong(out, Float.floatToIntBits((Float) value), 4);
+        } else if (value instanceof Boolean) {
+            out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Number) {
+            out.write(TAG_DECIMAL);
+            writeString(out, value.toString());
+        } else if (value instanceof List) {
+            List<?> list = (List<?>) value;
+            out.write(TAG_LIST);
+            writeVarLong(out, list.size());
+            for (Object element : list) {
+                writeValue(out, element, schema);
+            }
+        } else if (value instanceof Map && schema != null) {
+            out.write(TAG_RECORD);
+            writeRecord(out, (Map<?, ?>) value, schema);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.write(TAG_MAP);
+            writeVarLong(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue(), null);
+            }
+        } else {
+            throw new CoderException("Cannot encode a value of " + value.getClass());
+        }
+    }
+
+    private static TableRow readRecord(InputStream in, RecordSchema schema) throws IOException {
+        TableRow row = new TableRow();
+        byte[] bitmap = new byte[(schema.names.length + 7) / 8];
+        readFully(in, bitmap);
+        for (int ordinal = 0; ordinal < schema.names.length; ordinal++) {
+            if ((bitmap[ordinal >>> 3] & (1 << (ordinal & 7))) != 0) {
+                row.set(schema.names[ordinal], readValue(in, schema.nested[ordinal]));
+            }
+        }
+        long extraFields = readVarLong(in);
+        for (long i = 0; i < extraFields; i++) {
+            String name = readString(in);
+            row.set(name, readValue(in, null));
+        }
+        return row;
+    }
+
+    private static Object readValue(InputStream in, RecordSchema schema) throws IOException {
+        int tag = readByte(in);
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return readString(in);
+            case TAG_LONG:
+                return unzigzag(readVarLong(in));
+            case TAG_INTEGER:
+                return (int) unzigzag(readVarLong(in));
+            case TAG_DOUBLE:
+                return Double.longBitsToDouble(readFixedLong(in, 8));
+            case TAG_FLOAT:
+                return Float.intBitsToFloat((int) readFixedLong(in, 4));
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case TAG_LIST:
+                int size = readLength(in);
+                List<Object> list = new ArrayList<Object>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in, schema));
+                }
+                return list;
+            case TAG_RECORD:
+                if (schema == null) {
+                    throw new CoderException("Unexpected record for a field that is not a record");
+                }
+                return readRecord(in, schema);
+            case TAG_MAP:
+                int entries = readLength(in);
+                TableRow map = new TableRow();
+                for (int i = 0; i < entries; i++) {
+                    String name = readString(in);
+                    map.set(name, readValue(in, null));
+                }
+                return map;
+            default:
+                throw new CoderException("Unknown value tag " + tag);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CoderException("Malformed varint");
+    }
+
+    private static void writeFixedLong(OutputStream out, long value, int bytes) throws IOException {
+        for (int i = 0; i < bytes; i++) {
+            out.write((int) (value >>> (8 * i)));
+        }
+    }
+
+    private static long readFixedLong(InputStream in, int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value |= (long) readByte(in) << (8 * i);
+        }
+        return value;
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        readFully(in, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(InputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new CoderException("Malformed length " + length);
+        }
+        return (int) length;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private static void readFully(InputStream in, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            int read = in.read(bytes, offset, bytes.length - offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+}
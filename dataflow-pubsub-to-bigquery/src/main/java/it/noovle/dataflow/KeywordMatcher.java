@@ -0,0 +1,173 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive multi-keyword matcher, based on the Aho-Corasick automaton
+ * <p>
+ * All the keywords are matched in a single pass over the text, whatever their number. Instances
+ * are immutable and thread-safe.
+ */
+class KeywordMatcher {
+
+    // Transitions of each state, as parallel arrays of sorted characters and target states
+    private final char[][] edgeChars;
+    private final int[][] edgeTargets;
+    private final int[] failure;
+    private final boolean[] terminal;
+    // Index of the keyword ending in each state (or -1), and the closest state along the failure links that ends a keyword (or -1)
+    private final int[] keywordIndex;
+    private final int[] keywordLink;
+    private final String[] keywords;
+
+    KeywordMatcher(List<String> keywords) {
+        // Build the trie of the keywords
+        List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+        List<Integer> keywordIndexes = new ArrayList<Integer>();
+        trie.add(new TreeMap<Character, Integer>());
+        keywordIndexes.add(-1);
+        this.keywords = keywords.toArray(new String[keywords.size()]);
+        for (int k = 0; k < this.keywords.length; k++) {
+            String keyword = this.keywords[k];
+            if (keyword.isEmpty()) {
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(c, next);
+                    trie.add(new TreeMap<Character, Integer>());
+                    keywordIndexes.add(-1);
+                }
+                state = next;
+            }
+            keywordIndexes.set(state, k);
+        }
+
+        int size = trie.size();
+        edgeChars = new char[size][];
+        edgeTargets = new int[size][];
+        failure = new int[size];
+        terminal = new boolean[size];
+        keywordIndex = new int[size];
+        keywordLink = new int[size];
+        for (int state = 0; state < size; state++) {
+            TreeMap<Character, Integer> edges = trie.get(state);
+            edgeChars[state] = new char[edges.size()];
+            edgeTargets[state] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                edgeChars[state][i] = edge.getKey();
+                edgeTargets[state][i] = edge.getValue();
+                i++;
+            }
+            keywordIndex[state] = keywordIndexes.get(state);
+            terminal[state] = keywordIndex[state] >= 0;
+            keywordLink[state] = -1;
+        }
+
+        // Compute failure links breadth-first, so that a state inherits the matches of its failure state
+        Queue<Integer> queue = new LinkedList<Integer>();
+        for (int target : edgeTargets[0]) {
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (int i = 0; i < edgeChars[state].length; i++) {
+                char c = edgeChars[state][i];
+                int target = edgeTargets[state][i];
+                int fallback = failure[state];
+                while (fallback != 0 && next(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                int fallbackTarget = next(fallback, c);
+                failure[target] = fallbackTarget >= 0 && fallbackTarget != target ? fallbackTarget : 0;
+                terminal[target] |= terminal[failure[target]];
+                keywordLink[target] = keywordIndex[failure[target]] >= 0 ? failure[target] : keywordLink[failure[target]];
+                queue.add(target);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the text contains at least one of the keywords, ignoring case
+     */
+    boolean matches(CharSequence text) {
+        if (terminal[0]) {
+            return true;
+        }
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target = next(state, c);
+            while (target < 0 && state != 0) {
+                state = failure[state];
+                target = next(state, c);
+            }
+            state = target < 0 ? 0 : target;
+            if (terminal[state]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the keywords that occur in the text as whole words (i.e. not preceded nor followed by
+     * a letter or a digit), ignoring case
+     */
+    Set<String> findWords(CharSequence text) {
+        Set<String> found = new HashSet<String>();
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target = next(state, c);
+            while (target < 0 && state != 0) {
+                state = failure[state];
+                target = next(state, c);
+            }
+            state = target < 0 ? 0 : target;
+            for (int match = keywordIndex[state] >= 0 ? state : keywordLink[state]; match >= 0; match = keywordLink[match]) {
+                String keyword = keywords[keywordIndex[match]];
+                if (isWordBoundary(text, i - keyword.length()) && isWordBoundary(text, i + 1)) {
+                    found.add(keyword);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static boolean isWordBoundary(CharSequence text, int index) {
+        return index < 0 || index >= text.length() || !Character.isLetterOrDigit(text.charAt(index));
+    }
+
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(edgeChars[state], c);
+        return i >= 0 ? edgeTargets[state][i] : -1;
+    }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.language.v1beta1.model.AnalyzeSentimentRequest;
+import com.google.api.services.language.v1beta1.model.AnalyzeSentimentResponse;
+import com.google.api.services.language.v1beta1.model.Sentiment;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the Natural Language API, used to load-test the pipeline offline
+ * <p>
+ * The stub serves analyzeSentiment requests over HTTP on the loopback interface, so requests go
+ * through the same client and connection pool as in production. Each response is delayed by a
+ * configurable latency, and a configurable fraction of requests fails with a 503 error. Sentiments
+ * are derived from the text, so the same text always gets the same sentiment.
+ */
+class LanguageApiStub {
+
+    private static final String ERROR_RESPONSE = "{\"error\":{\"code\":503,\"message\":\"The service is currently unavailable.\",\"status\":\"UNAVAILABLE\"}}";
+    private static final String BAD_REQUEST_RESPONSE = "{\"error\":{\"code\":400,\"message\":\"Invalid JSON payload received.\",\"status\":\"INVALID_ARGUMENT\"}}";
+
+    private final HttpServer server;
+
+    private LanguageApiStub(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts the stub on an ephemeral port of the loopback interface
+     */
+    static LanguageApiStub start(int latencyMillis, double errorRate) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new AnalyzeSentimentHandler(latencyMillis, errorRate));
+        server.setExecutor(Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).setNameFormat("language-api-stub-%d").build()));
+        server.start();
+        return new LanguageApiStub(server);
+    }
+
+    /**
+     * Returns the root URL to be used by the Natural Language API client
+     */
+    String getRootUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private static final class AnalyzeSentimentHandler implements HttpHandler {
+        private final int latencyMillis;
+        private final double errorRate;
+        private final Random random = new Random();
+
+        private AnalyzeSentimentHandler(int latencyMillis, double errorRate) {
+            this.latencyMillis = latencyMillis;
+            this.errorRate = errorRate;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                // The client gzips the request content by default
+                AnalyzeSentimentRequest request;
+                try (InputStream body = "gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                        ? new GZIPInputStream(exchange.getRequestBody()) : exchange.getRequestBody()) {
+                    request = JacksonFactory.getDefaultInstance().fromInputStream(body, StandardCharsets.UTF_8, AnalyzeSentimentRequest.class);
+                } catch (IOException | IllegalArgumentException e) {
+                    respond(exchange, 400, BAD_REQUEST_RESPONSE);
+                    return;
+                }
+
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+
+                if (random.nextDouble() < errorRate) {
+                    respond(exchange, 503, ERROR_RESPONSE);
+                    return;
+                }
+
+                String text = request.getDocument() != null && request.getDocument().getContent() != null ? request.getDocument().getContent() : "";
+                int hash = text.hashCode();
+                Sentiment sentiment = new Sentiment()
+                        .setPolarity(((hash & 0xffff) / 32767.5f) - 1f)
+                        .setMagnitude(((hash >>> 16) & 0xffff) / 32767.5f);
+                respond(exchange, 200, JacksonFactory.getDefaultInstance().toString(new AnalyzeSentimentResponse().setDocumentSentiment(sentiment).setLanguage("en")));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(exchange, 503, ERROR_RESPONSE);
+            } finally {
+                exchange.close();
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int statusCode, String body) throws IOException {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(statusCode, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms of the pipeline stages, collected within the JVM that runs them
+ * <p>
+ * This mirrors the aggregators shown in the Dataflow monitoring UI. Recording is disabled by
+ * default. Local runs (e.g. the replay mode) enable it: stages then run in the same JVM as the main
+ * program, which can read the metrics when the pipeline is done.
+ */
+final class LocalMetrics {
+
+    private static final ConcurrentMap<String, AtomicLong> COUNTERS = new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<String, Histogram>();
+    private static volatile boolean enabled;
+
+    private LocalMetrics() {
+    }
+
+    static void enable() {
+        enabled = true;
+    }
+
+    /**
+     * Adds a value to a counter, if recording is enabled
+     */
+    static void count(String name, long value) {
+        if (!enabled) {
+            return;
+        }
+        AtomicLong counter = COUNTERS.get(name);
+        if (counter == null) {
+            COUNTERS.putIfAbsent(name, new AtomicLong());
+            counter = COUNTERS.get(name);
+        }
+        counter.addAndGet(value);
+    }
+
+    /**
+     * Records the latency of an element in a stage, if recording is enabled
+     */
+    static void record(String stage, long nanos) {
+        if (!enabled) {
+            return;
+        }
+        Histogram histogram = HISTOGRAMS.get(stage);
+        if (histogram == null) {
+            HISTOGRAMS.putIfAbsent(stage, new Histogram());
+            histogram = HISTOGRAMS.get(stage);
+        }
+        histogram.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Returns the value of a counter, or 0 if nothing was counted
+     */
+    static long getCounter(String name) {
+        AtomicLong counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * Returns the counters recorded so far, sorted by name
+     */
+    static SortedMap<String, Long> getCounters() {
+        SortedMap<String, Long> counters = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : COUNTERS.entrySet()) {
+            counters.put(entry.getKey(), entry.getValue().get());
+        }
+        return counters;
+    }
+
+    /**
+     * Returns the histograms recorded so far, sorted by stage name
+     */
+    static SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<String, Histogram>(HISTOGRAMS);
+    }
+
+    /**
+     * Lock-free histogram of latencies in microseconds, with log-linear buckets (about 12% precision)
+     */
+    static final class Histogram {
+        private static final int LINEAR_BUCKETS = 16;
+        private static final int SUB_BUCKETS = 8;
+        private static final int BUCKETS = LINEAR_BUCKETS + (63 - 4) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long micros) {
+            long value = Math.max(0, micros);
+            buckets.incrementAndGet(bucketOf(value));
+            count.incrementAndGet();
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        long getCount() {
+            return count.get();
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Returns the latency, in microseconds, below which the given fraction of the elements falls
+         */
+        long getPercentile(double fraction) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(fraction * total);
+            long cumulative = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                cumulative += buckets.get(bucket);
+                if (cumulative >= target) {
+                    return Math.min(upperBoundOf(bucket), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int bucketOf(long micros) {
+            if (micros < LINEAR_BUCKETS) {
+                return (int) micros;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(micros);
+            int subBucket = (int) ((micros >>> (exponent - 3)) & (SUB_BUCKETS - 1));
+            return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+        }
+
+        static long upperBoundOf(int bucket) {
+            if (bucket < LINEAR_BUCKETS) {
+                return bucket;
+            }
+            int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+            int subBucket = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1L) << (exponent - 3)) - 1;
+        }
+    }
+
+    /**
+     * Formats the counters and the histograms as a human-readable report, one line per metric
+     */
+    static String report(Map<String, Long> counters, Map<String, Histogram> histograms) {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Long> entry : counters.entrySet()) {
+            report.append(String.format("%-60s %d%n", entry.getKey(), entry.getValue()));
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            report.append(String.format("%-60s count=%-9d p50=%9.3f ms  p90=%9.3f ms  p99=%9.3f ms  max=%9.3f ms%n", entry.getKey(), histogram.getCount(),
+                    histogram.getPercentile(0.50) / 1000.0, histogram.getPercentile(0.90) / 1000.0, histogram.getPercentile(0.99) / 1000.0, histogram.getMax() / 1000.0));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,82 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.Serializable;
+
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
+import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
+import com.google.cloud.dataflow.sdk.transforms.Combine;
+import com.google.cloud.dataflow.sdk.util.common.Counter;
+import com.google.cloud.dataflow.sdk.util.common.CounterProvider;
+
+/**
+ * Computes the mean of a series of doubles, as the combiner of an aggregator
+ * <p>
+ * Aggregators run on the Dataflow service only with combiners that provide a counter of the
+ * service, and the SDK provides them only for sums, minimums and maximums. This combiner provides
+ * a counter of kind MEAN, so its value is shown as a mean in the monitoring UI.
+ */
+class MeanDoubleFn extends Combine.CombineFn<Double, MeanDoubleFn.CountSum, Double> implements CounterProvider<Double> {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number and sum of the values combined so far
+     */
+    static final class CountSum implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long count;
+        private double sum;
+    }
+
+    @Override
+    public CountSum createAccumulator() {
+        return new CountSum();
+    }
+
+    @Override
+    public CountSum addInput(CountSum accumulator, Double input) {
+        accumulator.count++;
+        accumulator.sum += input;
+        return accumulator;
+    }
+
+    @Override
+    public CountSum mergeAccumulators(Iterable<CountSum> accumulators) {
+        CountSum merged = new CountSum();
+        for (CountSum accumulator : accumulators) {
+            merged.count += accumulator.count;
+            merged.sum += accumulator.sum;
+        }
+        return merged;
+    }
+
+    @Override
+    public Double extractOutput(CountSum accumulator) {
+        return accumulator.count == 0 ? 0.0 : accumulator.sum / accumulator.count;
+    }
+
+    @Override
+    public Coder<CountSum> getAccumulatorCoder(CoderRegistry registry, Coder<Double> inputCoder) {
+        return SerializableCoder.of(CountSum.class);
+    }
+
+    @Override
+    public Counter<Double> getCounter(String name) {
+        return Counter.doubles(name, Counter.AggregationKind.MEAN);
+    }
+}
@@ -0,0 +1,205 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.coders.CoderRegistry;
+import com.google.cloud.dataflow.sdk.coders.SerializableCoder;
+import com.google.cloud.dataflow.sdk.transforms.Combine;
+
+/**
+ * Combines annotated tweets into the statistics of a window: number of tweets, mean and variance of
+ * polarity and magnitude, and the approximate top hashtags and retailers
+ * <p>
+ * Mean and variance are computed with Welford's online algorithm and merged with Chan's parallel
+ * formula, so that tweets can be combined on each worker before being shuffled. Retailers are
+ * mentioned in the text as whole words, hashtags are compared ignoring case.
+ */
+class SentimentAggregateFn extends Combine.CombineFn<TableRow, SentimentAggregateFn.Accumulator, TableRow> {
+    private static final long serialVersionUID = 1L;
+
+    // Space-Saving summaries track more values than reported, to keep the top ones accurate
+    private static final int TOP_CAPACITY_FACTOR = 10;
+
+    private final ArrayList<String> retailers;
+    private final int topCount;
+
+    private transient KeywordMatcher retailerMatcher;
+
+    SentimentAggregateFn(List<String> retailers, int topCount) {
+        this.retailers = new ArrayList<String>(retailers);
+        this.topCount = topCount;
+    }
+
+    /**
+     * Creates the combiner from a comma-separated list of retailers
+     *
+     * @throws IllegalArgumentException if the number of top hashtags and retailers is less than 1
+     */
+    static SentimentAggregateFn of(String retailers, int topCount) {
+        if (topCount < 1) {
+            throw new IllegalArgumentException("The number of top hashtags and retailers must be at least 1, but was " + topCount);
+        }
+        List<String> retailerList = new ArrayList<String>();
+        for (String retailer : retailers.split(",")) {
+            if (!retailer.trim().isEmpty()) {
+                retailerList.add(retailer.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return new SentimentAggregateFn(retailerList, topCount);
+    }
+
+    /**
+     * Running count, mean and sum of squared deviations of a series of values
+     */
+    static final class Moments implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long count;
+        private double mean;
+        private double m2;
+
+        void add(double value) {
+            count++;
+            double delta = value - mean;
+            mean += delta / count;
+            m2 += delta * (value - mean);
+        }
+
+        void merge(Moments other) {
+            if (other.count == 0) {
+                return;
+            }
+            long total = count + other.count;
+            double delta = other.mean - mean;
+            mean += delta * other.count / total;
+            m2 += other.m2 + delta * delta * count * other.count / total;
+            count = total;
+        }
+
+        Double getMean() {
+            return count == 0 ? null : mean;
+        }
+
+        /**
+         * Returns the population variance, or null if there are no values
+         */
+        Double getVariance() {
+            return count == 0 ? null : m2 / count;
+        }
+    }
+
+    static final class Accumulator implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private long tweets;
+        private final Moments polarity = new Moments();
+        private final Moments magnitude = new Moments();
+        private final ApproximateTopK hashtags;
+        private final ApproximateTopK retailers;
+
+        private Accumulator(int topCapacity) {
+            hashtags = new ApproximateTopK(topCapacity);
+            retailers = new ApproximateTopK(topCapacity);
+        }
+    }
+
+    @Override
+    public Accumulator createAccumulator() {
+        return new Accumulator(topCount * TOP_CAPACITY_FACTOR);
+    }
+
+    @Override
+    public Accumulator addInput(Accumulator accumulator, TableRow row) {
+        accumulator.tweets++;
+        Object polarity = row.get("polarity");
+        if (polarity instanceof Number) {
+            accumulator.polarity.add(((Number) polarity).doubleValue());
+        }
+        Object magnitude = row.get("magnitude");
+        if (magnitude instanceof Number) {
+            accumulator.magnitude.add(((Number) magnitude).doubleValue());
+        }
+        Object entities = row.get("entities");
+        Object hashtags = entities instanceof Map ? ((Map<?, ?>) entities).get("hashtags") : null;
+        if (hashtags instanceof List) {
+            for (Object hashtag : (List<?>) hashtags) {
+                Object text = hashtag instanceof Map ? ((Map<?, ?>) hashtag).get("text") : null;
+                if (text instanceof String) {
+                    accumulator.hashtags.add(((String) text).toLowerCase(Locale.ROOT));
+                }
+            }
+        }
+        Object text = row.get("text");
+        if (text instanceof String) {
+            for (String retailer : getRetailerMatcher().findWords((String) text)) {
+                accumulator.retailers.add(retailer);
+            }
+        }
+        return accumulator;
+    }
+
+    @Override
+    public Accumulator mergeAccumulators(Iterable<Accumulator> accumulators) {
+        Accumulator merged = createAccumulator();
+        for (Accumulator accumulator : accumulators) {
+            merged.tweets += accumulator.tweets;
+            merged.polarity.merge(accumulator.polarity);
+            merged.magnitude.merge(accumulator.magnitude);
+            merged.hashtags.merge(accumulator.hashtags);
+            merged.retailers.merge(accumulator.retailers);
+        }
+        return merged;
+    }
+
+    @Override
+    public TableRow extractOutput(Accumulator accumulator) {
+        return new TableRow()
+                .set("tweets", accumulator.tweets)
+                .set("polarity_mean", accumulator.polarity.getMean())
+                .set("polarity_variance", accumulator.polarity.getVariance())
+                .set("magnitude_mean", accumulator.magnitude.getMean())
+                .set("magnitude_variance", accumulator.magnitude.getVariance())
+                .set("top_hashtags", toRows(accumulator.hashtags.top(topCount)))
+                .set("top_retailers", toRows(accumulator.retailers.top(topCount)));
+    }
+
+    @Override
+    public Coder<Accumulator> getAccumulatorCoder(CoderRegistry registry, Coder<TableRow> inputCoder) {
+        return SerializableCoder.of(Accumulator.class);
+    }
+
+    private KeywordMatcher getRetailerMatcher() {
+        if (retailerMatcher == null) {
+            retailerMatcher = new KeywordMatcher(retailers);
+        }
+        return retailerMatcher;
+    }
+
+    private static List<TableRow> toRows(Map<String, Long> counts) {
+        List<TableRow> rows = new ArrayList<TableRow>();
+        for (Map.Entry<String, Long> entry : counts.entrySet()) {
+            rows.add(new TableRow().set("value", entry.getKey()).set("count", entry.getValue()));
+        }
+        return rows;
+    }
+}
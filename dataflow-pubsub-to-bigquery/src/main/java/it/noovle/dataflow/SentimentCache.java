@@ -0,0 +1,91 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import com.google.api.services.language.v1beta1.model.Sentiment;
+
+/**
+ * Bounded LRU cache of Natural Language API sentiment results, with a time-to-live on each entry
+ * <p>
+ * Entries are keyed on the normalized text of the tweet (see {@link #normalize(String)}), so that
+ * retweets and reposts of the same text share a single API call. The cache is thread-safe and is
+ * meant to be shared by all the DoFn instances running in the same worker.
+ */
+class SentimentCache {
+
+    private static final Pattern RETWEET_PREFIX = Pattern.compile("^(RT @\\w+:\\s*)+");
+    private static final Pattern URL = Pattern.compile("https?://\\S+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final long ttlMillis;
+    private final Map<String, CachedSentiment> entries;
+
+    private static final class CachedSentiment {
+        private final Sentiment sentiment;
+        private final long expiresAt;
+
+        private CachedSentiment(Sentiment sentiment, long expiresAt) {
+            this.sentiment = sentiment;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    SentimentCache(final int maxSize, long ttlMillis) {
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<String, CachedSentiment>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedSentiment> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached sentiment for a normalized text, or null if it is missing or expired
+     */
+    synchronized Sentiment get(String key) {
+        CachedSentiment cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAt < System.currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return cached.sentiment;
+    }
+
+    /**
+     * Caches the sentiment for a normalized text
+     */
+    synchronized void put(String key, Sentiment sentiment) {
+        entries.put(key, new CachedSentiment(sentiment, System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Normalizes the text of a tweet, removing the "RT @user:" prefix, URLs and redundant whitespace
+     */
+    static String normalize(String text) {
+        String normalized = RETWEET_PREFIX.matcher(text).replaceFirst("");
+        normalized = URL.matcher(normalized).replaceAll(" ");
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+}
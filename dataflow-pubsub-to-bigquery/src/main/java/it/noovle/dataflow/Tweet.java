@@ -0,0 +1,97 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.util.Map;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.cloud.dataflow.sdk.coders.DefaultCoder;
+
+/**
+ * A tweet parsed from its JSON message, ready to be written to BigQuery
+ * <p>
+ * The tweet is parsed once, upstream of all the branches of the pipeline, and carries the TableRow
+ * built from its message. Elements are shared between branches, so the row must never be modified:
+ * use {@link #toAnnotatedRow(Float, Float)} to get a copy with the sentiment fields added.
+ */
+@DefaultCoder(TweetCoder.class)
+public class Tweet {
+
+    private final TableRow row;
+    private final boolean matched;
+
+    public Tweet(TableRow row, boolean matched) {
+        this.row = row;
+        this.matched = matched;
+    }
+
+    /**
+     * Returns the row for the raw tweets table
+     */
+    public TableRow getRow() {
+        return row;
+    }
+
+    /**
+     * Returns true if the tweet passed the keyword filter and is to be annotated
+     */
+    public boolean isMatched() {
+        return matched;
+    }
+
+    public String getText() {
+        return getString(row, "text");
+    }
+
+    public String getLang() {
+        return getString(row, "lang");
+    }
+
+    /**
+     * Returns the text of the original tweet if this is a retweet, or null otherwise
+     */
+    public String getRetweetedText() {
+        Object retweetedStatus = row.get("retweeted_status");
+        if (retweetedStatus instanceof Map) {
+            return getString((Map<?, ?>) retweetedStatus, "text");
+        }
+        return null;
+    }
+
+    /**
+     * Returns the text to be annotated: the text of the original tweet for retweets, which is not
+     * truncated by the "RT @user:" prefix, so that all the copies of a tweet get the same sentiment
+     */
+    public String getSentimentText() {
+        String retweetedText = getRetweetedText();
+        return retweetedText != null ? retweetedText : getText();
+    }
+
+    /**
+     * Returns a copy of the row with the sentiment fields added, for the annotated tweets table
+     */
+    public TableRow toAnnotatedRow(Float polarity, Float magnitude) {
+        TableRow annotatedRow = new TableRow();
+        annotatedRow.putAll(row);
+        annotatedRow.set("polarity", polarity);
+        annotatedRow.set("magnitude", magnitude);
+        return annotatedRow;
+    }
+
+    private static String getString(Map<?, ?> map, String key) {
+        Object value = map.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+}
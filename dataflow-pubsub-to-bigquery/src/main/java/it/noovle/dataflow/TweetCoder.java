@@ -0,0 +1,62 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.google.cloud.dataflow.sdk.coders.CoderException;
+import com.google.cloud.dataflow.sdk.coders.CustomCoder;
+import com.google.cloud.dataflow.sdk.values.TypeDescriptor;
+
+/**
+ * Coder for {@link Tweet} elements, used when they cross a stage boundary
+ * <p>
+ * Rows are encoded with a {@link CompactTableRowCoder} compiled from the schema of the raw tweets.
+ */
+public class TweetCoder extends CustomCoder<Tweet> {
+    private static final long serialVersionUID = 1L;
+
+    private static final TweetCoder INSTANCE = new TweetCoder();
+    private static final CompactTableRowCoder ROW_CODER = CompactTableRowCoder.of(TwitterProcessor.TWEETS_TABLE_SCHEMA);
+
+    public static TweetCoder of() {
+        return INSTANCE;
+    }
+
+    /**
+     * Factory method required by {@link com.google.cloud.dataflow.sdk.coders.DefaultCoder}
+     */
+    public static TweetCoder of(TypeDescriptor<Tweet> type) {
+        return INSTANCE;
+    }
+
+    @Override
+    public void encode(Tweet value, OutputStream outStream, Context context) throws CoderException, IOException {
+        outStream.write(value.isMatched() ? 1 : 0);
+        ROW_CODER.encode(value.getRow(), outStream, context);
+    }
+
+    @Override
+    public Tweet decode(InputStream inStream, Context context) throws CoderException, IOException {
+        int matched = inStream.read();
+        if (matched < 0) {
+            throw new EOFException();
+        }
+        return new Tweet(ROW_CODER.decode(inStream, context), matched == 1);
+    }
+}
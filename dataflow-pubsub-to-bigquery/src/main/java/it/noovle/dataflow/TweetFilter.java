@@ -0,0 +1,104 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Selects the tweets to be annotated: the ones in a given language whose text contains at least one
+ * of a set of keywords or hashtags
+ * <p>
+ * The filter can run directly on the JSON message: only the top-level "text" and "lang" fields are
+ * read, everything else is skipped without being built, and the scan stops as soon as the outcome
+ * is known.
+ */
+class TweetFilter {
+
+    private final KeywordMatcher matcher;
+    private final String language;
+
+    TweetFilter(List<String> keywords, String language) {
+        this.matcher = new KeywordMatcher(keywords);
+        this.language = language;
+    }
+
+    /**
+     * Creates a filter from a comma-separated list of keywords
+     */
+    static TweetFilter of(String keywords, String language) {
+        List<String> keywordList = new ArrayList<String>();
+        for (String keyword : keywords.split(",")) {
+            if (!keyword.trim().isEmpty()) {
+                keywordList.add(keyword.trim());
+            }
+        }
+        return new TweetFilter(keywordList, language);
+    }
+
+    /**
+     * Returns true if a tweet with the given text and language is to be annotated
+     */
+    boolean accept(String text, String lang) {
+        return text != null && lang != null && lang.equalsIgnoreCase(language) && matcher.matches(text);
+    }
+
+    /**
+     * Returns true if the tweet described by a JSON message is to be annotated, scanning only as much
+     * of the message as needed: the scan stops as soon as the text or the language rules the tweet out
+     *
+     * @throws JsonSyntaxException if the scanned part of the message is not well-formed JSON; errors
+     *         past the point where the tweet is rejected are not detected
+     */
+    boolean acceptMessage(String json) {
+        try {
+            JsonReader in = new JsonReader(new StringReader(json));
+            in.setLenient(true);
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new JsonSyntaxException("Expected a JSON object but was " + in.peek());
+            }
+            String text = null;
+            String lang = null;
+            in.beginObject();
+            while (in.hasNext() && (text == null || lang == null)) {
+                String name = in.nextName();
+                if (text == null && name.equals("text") && in.peek() == JsonToken.STRING) {
+                    text = in.nextString();
+                    if (!matcher.matches(text)) {
+                        return false;
+                    }
+                } else if (lang == null && name.equals("lang") && in.peek() == JsonToken.STRING) {
+                    lang = in.nextString();
+                    if (!lang.equalsIgnoreCase(language)) {
+                        return false;
+                    }
+                } else {
+                    in.skipValue();
+                }
+            }
+            return accept(text, lang);
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * Converts the JSON message describing a tweet into a TableRow, in a single streaming pass
+ * <p>
+ * The transcoder is compiled once from a TableSchema and only writes the fields that the schema
+ * declares, skipping everything else without building it. While streaming, it also:
+ * <ul>
+ * <li>drops null values;</li>
+ * <li>drops values whose shape does not fit their column (e.g. an object for a STRING field);</li>
+ * <li>flattens nested arrays of "coordinates" fields;</li>
+ * <li>writes "attributes" fields as their JSON String;</li>
+ * <li>rewrites "created_at" fields from 'Tue Oct 18 07:01:50 +0000 2016' to "2016-10-18 07:01:50" (UTC).</li>
+ * </ul>
+ * Dates that cannot be parsed are kept as they are, and counted (see {@link #drainDateParseFailures()}).
+ * Instances are immutable and thread-safe.
+ */
+class TweetTranscoder {
+
+    private static final String[] MONTHS = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+    private static final int TWITTER_DATE_LENGTH = "Tue Oct 18 07:01:50 +0000 2016".length();
+
+    private static final AtomicLong DATE_PARSE_FAILURES = new AtomicLong();
+
+    private final Map<String, Field> root;
+
+    /**
+     * A field of the schema, with the rules to apply to its values
+     */
+    private static final class Field {
+        private final String name;
+        private final String type;
+        private final boolean repeated;
+        private final Map<String, Field> fields;
+        private final boolean flatten;
+        private final boolean stringify;
+        private final boolean date;
+
+        private Field(TableFieldSchema schema) {
+            this.name = schema.getName();
+            this.type = schema.getType();
+            this.repeated = "REPEATED".equals(schema.getMode());
+            this.fields = schema.getFields() != null ? compile(schema.getFields()) : null;
+            this.flatten = name.equalsIgnoreCase("coordinates");
+            this.stringify = name.equalsIgnoreCase("attributes");
+            this.date = name.equalsIgnoreCase("created_at");
+        }
+    }
+
+    TweetTranscoder(TableSchema schema) {
+        this.root = compile(schema.getFields());
+    }
+
+    private static Map<String, Field> compile(List<TableFieldSchema> schemaFields) {
+        Map<String, Field> fields = new HashMap<String, Field>();
+        for (TableFieldSchema schemaField : schemaFields) {
+            fields.put(schemaField.getName(), new Field(schemaField));
+        }
+        return fields;
+    }
+
+    /**
+     * Transcodes a JSON message into a TableRow
+     *
+     * @throws JsonSyntaxException if the message is not a well-formed JSON object
+     */
+    TableRow transcode(String json) {
+        try {
+            JsonReader in = new JsonReader(new StringReader(json));
+            in.setLenient(true);
+            if (in.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new JsonSyntaxException("Expected a JSON object but was " + in.peek());
+            }
+            TableRow row = readRecord(in, root);
+            if (in.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonSyntaxException("Did not consume the entire document.");
+            }
+            return row;
+        } catch (IOException e) {
+            throw new JsonSyntaxException(e);
+        } catch (NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } catch (IllegalStateException e) {
+            throw new JsonSyntaxException(e);
+        }
+    }
+
+    /**
+     * Returns the number of dates that could not be parsed since the last call, in this JVM
+     * <p>
+     * Each failure is returned by a single call, so callers can add the result to a counter.
+     */
+    static long drainDateParseFailures() {
+        return DATE_PARSE_FAILURES.getAndSet(0);
+    }
+
+    private static TableRow readRecord(JsonReader in, Map<String, Field> fields) throws IOException {
+        TableRow row = new TableRow();
+        in.beginObject();
+        while (in.hasNext()) {
+            Field field = fields.get(in.nextName());
+            if (field == null) {
+                in.skipValue();
+                continue;
+            }
+            Object value = readField(in, field);
+            if (value != null) {
+                row.set(field.name, value);
+            }
+        }
+        in.endObject();
+        return row;
+    }
+
+    private static Object readField(JsonReader in, Field field) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        } else if (field.stringify) {
+            return new JsonParser().parse(in).toString();
+        } else if (field.flatten && token == JsonToken.BEGIN_ARRAY) {
+            List<Object> values = new ArrayList<Object>();
+            readFlattened(in, field, values);
+            return values;
+        } else if (field.repeated) {
+            if (token != JsonToken.BEGIN_ARRAY) {
+                in.skipValue();
+                return null;
+            }
+            List<Object> values = new ArrayList<Object>();
+            in.beginArray();
+            while (in.hasNext()) {
+                Object value = readValue(in, field);
+                if (value != null) {
+                    values.add(value);
+                }
+            }
+            in.endArray();
+            return values;
+        } else {
+            return readValue(in, field);
+        }
+    }
+
+    private static void readFlattened(JsonReader in, Field field, List<Object> values) throws IOException {
+        if (in.peek() == JsonToken.BEGIN_ARRAY) {
+            in.beginArray();
+            while (in.hasNext()) {
+                readFlattened(in, field, values);
+            }
+            in.endArray();
+        } else {
+            Object value = readValue(in, field);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+    }
+
+    private static Object readValue(JsonReader in, Field field) throws IOException {
+        switch (in.peek()) {
+            case BEGIN_OBJECT:
+                if (field.fields == null) {
+                    in.skipValue();
+                    return null;
+                }
+                return readRecord(in, field.fields);
+            case STRING:
+                String value = in.nextString();
+                if (field.date) {
+                    String formatted = formatDate(value);
+                    if (formatted == null) {
+                        DATE_PARSE_FAILURES.incrementAndGet();
+                        return value;
+                    }
+                    return formatted;
+                }
+                return value;
+            case NUMBER:
+                return readNumber(in.nextString(), field.type);
+            case BOOLEAN:
+                return in.nextBoolean();
+            case NULL:
+                in.nextNull();
+                return null;
+            default:
+                // Nested arrays and other values that do not fit the column
+                in.skipValue();
+                return null;
+        }
+    }
+
+    private static Object readNumber(String literal, String type) {
+        if ("INTEGER".equals(type)) {
+            try {
+                return Long.parseLong(literal);
+            } catch (NumberFormatException e) {
+                return new BigDecimal(literal);
+            }
+        } else if ("FLOAT".equals(type)) {
+            return Double.parseDouble(literal);
+        } else if ("STRING".equals(type)) {
+            return literal;
+        }
+        return new BigDecimal(literal);
+    }
+
+    /**
+     * Parses dates like 'Tue Oct 18 07:01:50 +0000 2016' and writes them out as "2016-10-18 07:01:50", in UTC
+     * <p>
+     * Twitter dates have a fixed layout, so fields are read by position instead of going through a
+     * SimpleDateFormat. Returns null if the date does not match the layout.
+     */
+    static String formatDate(String date) {
+        if (date.length() != TWITTER_DATE_LENGTH || date.charAt(3) != ' ' || date.charAt(7) != ' ' || date.charAt(10) != ' '
+                || date.charAt(13) != ':' || date.charAt(16) != ':' || date.charAt(19) != ' ' || date.charAt(25) != ' ') {
+            return null;
+        }
+        int month = -1;
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (date.regionMatches(4, MONTHS[i], 0, 3)) {
+                month = i + 1;
+                break;
+            }
+        }
+        int day = readDigits(date, 8, 2);
+        int hour = readDigits(date, 11, 2);
+        int minute = readDigits(date, 14, 2);
+        int second = readDigits(date, 17, 2);
+        int offsetHours = readDigits(date, 21, 2);
+        int offsetMinutes = readDigits(date, 23, 2);
+        int year = readDigits(date, 26, 4);
+        char sign = date.charAt(20);
+        if (month < 0 || day < 0 || hour < 0 || minute < 0 || second < 0 || offsetHours < 0 || offsetMinutes < 0 || year < 0 || (sign != '+' && sign != '-')) {
+            return null;
+        }
+
+        int offset = offsetHours * 60 + offsetMinutes;
+        if (offset != 0) {
+            // Move the date to UTC
+            long minutes = daysFromCivil(year, month, day) * 1440 + hour * 60 + minute - (sign == '+' ? offset : -offset);
+            long days = floorDiv(minutes, 1440);
+            int minuteOfDay = (int) (minutes - days * 1440);
+            hour = minuteOfDay / 60;
+            minute = minuteOfDay % 60;
+            long civil = civilFromDays(days);
+            year = (int) (civil / 10000);
+            month = (int) (civil / 100 % 100);
+            day = (int) (civil % 100);
+        }
+
+        char[] formatted = new char[19];
+        writeDigits(formatted, 0, year, 4);
+        formatted[4] = '-';
+        writeDigits(formatted, 5, month, 2);
+        formatted[7] = '-';
+        writeDigits(formatted, 8, day, 2);
+        formatted[10] = ' ';
+        writeDigits(formatted, 11, hour, 2);
+        formatted[13] = ':';
+        writeDigits(formatted, 14, minute, 2);
+        formatted[16] = ':';
+        writeDigits(formatted, 17, second, 2);
+        return new String(formatted);
+    }
+
+    private static int readDigits(String s, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void writeDigits(char[] buffer, int start, int value, int length) {
+        for (int i = start + length - 1; i >= start; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 of a date of the proleptic Gregorian calendar
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Returns the date, encoded as yyyyMMdd, that is a number of days after 1970-01-01
+     */
+    private static long civilFromDays(long days) {
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+}
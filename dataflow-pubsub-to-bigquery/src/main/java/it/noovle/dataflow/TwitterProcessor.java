@@ -15,22 +15,42 @@
 package it.noovle.dataflow;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.security.GeneralSecurityException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.params.HttpParams;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.api.client.googleapis.GoogleUtils;
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
 import com.google.api.client.http.HttpRequest;
 import com.google.api.client.http.HttpRequestInitializer;
-import com.google.api.client.json.JsonFactory;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.ApacheHttpTransport;
 import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.util.BackOff;
+import com.google.api.client.util.ExponentialBackOff;
+import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
@@ -46,18 +66,34 @@ import com.google.cloud.dataflow.sdk.io.PubsubIO;
 import com.google.cloud.dataflow.sdk.io.TextIO;
 import com.google.cloud.dataflow.sdk.options.DataflowPipelineOptions;
 import com.google.cloud.dataflow.sdk.options.DataflowPipelineWorkerPoolOptions.AutoscalingAlgorithmType;
+import com.google.cloud.dataflow.sdk.options.Default;
+import com.google.cloud.dataflow.sdk.options.Description;
 import com.google.cloud.dataflow.sdk.options.PipelineOptionsFactory;
 import com.google.cloud.dataflow.sdk.runners.DataflowPipelineRunner;
 import com.google.cloud.dataflow.sdk.runners.DirectPipelineRunner;
+import com.google.cloud.dataflow.sdk.transforms.Aggregator;
+import com.google.cloud.dataflow.sdk.transforms.Combine;
 import com.google.cloud.dataflow.sdk.transforms.DoFn;
+import com.google.cloud.dataflow.sdk.transforms.GroupByKey;
+import com.google.cloud.dataflow.sdk.transforms.Max;
+import com.google.cloud.dataflow.sdk.transforms.PTransform;
 import com.google.cloud.dataflow.sdk.transforms.ParDo;
+import com.google.cloud.dataflow.sdk.transforms.Sum;
+import com.google.cloud.dataflow.sdk.transforms.windowing.AfterProcessingTime;
+import com.google.cloud.dataflow.sdk.transforms.windowing.AfterWatermark;
+import com.google.cloud.dataflow.sdk.transforms.windowing.FixedWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.GlobalWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.IntervalWindow;
+import com.google.cloud.dataflow.sdk.transforms.windowing.SlidingWindows;
+import com.google.cloud.dataflow.sdk.transforms.windowing.Window;
+import com.google.cloud.dataflow.sdk.transforms.windowing.WindowFn;
+import com.google.cloud.dataflow.sdk.values.KV;
 import com.google.cloud.dataflow.sdk.values.PCollection;
-import com.google.common.collect.Sets;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.cloud.dataflow.sdk.values.PCollectionTuple;
+import com.google.cloud.dataflow.sdk.values.TupleTag;
+import com.google.cloud.dataflow.sdk.values.TupleTagList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonParseException;
-import com.google.gson.JsonParser;
 
 public class TwitterProcessor {
 
@@ -65,82 +101,824 @@ public class TwitterProcessor {
 
     // Constants
     private static final String APPLICATION_NAME = "TwitterProcessorDataflowPipeline/1.0";
-    private static final String ANNOTATED_TWEETS_TABLE_SCHEMA =
+    static final String ANNOTATED_TWEETS_TABLE_SCHEMA =
             "{\"fields\":[{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"extended_entities\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"truncated\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_user_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_user_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_screen_name\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"location\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"description\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"protected\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"verified\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"followers_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"friends_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"listed_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favourites_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"statuses_count\",\"mode\":\"NULLABLE\"},{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"utc_offset\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"time_zone\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"geo_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"contributors_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"is_translator\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_background_tile\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_link_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_border_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_fill_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_text_color\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_use_background_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_banner_url\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"following\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"follow_request_sent\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"notifications\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"user\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"geo\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"coordinates\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"place_type\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"full_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country_code\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"bounding_box\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"attributes\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"place\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"contributors\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"BOOLEAN\",\"name\":\"followers\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"scopes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"extended_entities\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"truncated\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_user_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_user_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_screen_name\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"location\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"description\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"protected\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"verified\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"followers_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"friends_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"listed_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favourites_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"statuses_count\",\"mode\":\"NULLABLE\"},{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"utc_offset\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"time_zone\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"geo_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"contributors_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"is_translator\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_background_tile\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_link_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_border_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_fill_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_text_color\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_use_background_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_banner_url\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"following\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"follow_request_sent\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"notifications\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"user\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"pl\",\"mode\":\"REPEATED\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"geo\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"coordinates\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"place_type\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"full_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country_code\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"bounding_box\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"attributes\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"place\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"contributors\",\"mode\":\"REPEATED\"},{\"type\":\"INTEGER\",\"name\":\"retweet_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favorite_count\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"hashtags\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"trends\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"urls\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"user_mentions\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"symbols\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"entities\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"favorited\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"retweeted\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"timestamp_ms\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"possibly_sensitive\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"filter_level\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"withheld_copyright\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"retweeted_status\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"retweet_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favorite_count\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"hashtags\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"trends\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"urls\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"user_mentions\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"symbols\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"entities\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"favorited\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"retweeted\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"timestamp_ms\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"possibly_sensitive\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"filter_level\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"polarity\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"magnitude\",\"mode\":\"NULLABLE\"}]}";
-    private static final String TWEETS_TABLE_SCHEMA =
+    private static final String SENTIMENT_AGGREGATES_TABLE_SCHEMA =
+            "{\"fields\":[{\"type\":\"TIMESTAMP\",\"name\":\"window_start\",\"mode\":\"NULLABLE\"},{\"type\":\"TIMESTAMP\",\"name\":\"window_end\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"pane_timing\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"pane_index\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"tweets\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"polarity_mean\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"polarity_variance\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"magnitude_mean\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"magnitude_variance\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"value\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"count\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"top_hashtags\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"value\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"count\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"top_retailers\",\"mode\":\"REPEATED\"}]}";
+
+    // Format of the BigQuery TIMESTAMP values written by the pipeline, e.g. the "created_at" fields
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss").withZoneUTC();
+
+    // Delay of the late firings of the sentiment aggregates, after the first late tweet of a window
+    private static final Duration LATE_FIRING_DELAY = Duration.standardMinutes(1);
+
+    static final String TWEETS_TABLE_SCHEMA =
             "{\"fields\":[{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"extended_entities\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"truncated\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_user_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_user_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_screen_name\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"location\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"description\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"protected\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"verified\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"followers_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"friends_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"listed_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favourites_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"statuses_count\",\"mode\":\"NULLABLE\"},{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"utc_offset\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"time_zone\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"geo_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"contributors_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"is_translator\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_background_tile\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_link_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_border_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_fill_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_text_color\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_use_background_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_banner_url\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"following\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"follow_request_sent\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"notifications\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"user\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"geo\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"coordinates\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"place_type\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"full_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country_code\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"bounding_box\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"attributes\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"place\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"contributors\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"BOOLEAN\",\"name\":\"followers\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"scopes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"extended_entities\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"truncated\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_status_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"in_reply_to_user_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_user_id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"in_reply_to_screen_name\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"location\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"description\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"protected\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"verified\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"followers_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"friends_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"listed_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favourites_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"statuses_count\",\"mode\":\"NULLABLE\"},{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"utc_offset\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"time_zone\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"geo_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"contributors_enabled\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"is_translator\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_background_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_background_tile\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_link_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_border_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_sidebar_fill_color\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_text_color\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"profile_use_background_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_image_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"profile_banner_url\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"default_profile_image\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"following\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"follow_request_sent\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"notifications\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"user\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"pl\",\"mode\":\"REPEATED\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"geo\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"coordinates\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"place_type\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"full_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country_code\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"country\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"bounding_box\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"attributes\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"place\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"contributors\",\"mode\":\"REPEATED\"},{\"type\":\"INTEGER\",\"name\":\"retweet_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favorite_count\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"hashtags\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"trends\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"urls\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"user_mentions\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"symbols\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"entities\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"favorited\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"retweeted\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"timestamp_ms\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"possibly_sensitive\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"filter_level\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"withheld_copyright\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"retweeted_status\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"retweet_count\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"favorite_count\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"hashtags\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"trends\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"urls\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"STRING\",\"name\":\"screen_name\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"user_mentions\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"symbols\",\"mode\":\"REPEATED\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"id_str\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"},{\"type\":\"STRING\",\"name\":\"media_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"media_url_https\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"display_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"expanded_url\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"large\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"medium\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"thumb\",\"mode\":\"NULLABLE\"},{\"fields\":[{\"type\":\"INTEGER\",\"name\":\"w\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"h\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"resize\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"small\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"sizes\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"source_status_id\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"source_status_id_str\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"media\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"entities\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"favorited\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"retweeted\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"timestamp_ms\",\"mode\":\"NULLABLE\"},{\"type\":\"BOOLEAN\",\"name\":\"possibly_sensitive\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"filter_level\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"lang\",\"mode\":\"NULLABLE\"}]}";
-    private static final Set<String> IGNORED_FIELDS = Sets.newHashSet("video_info", "scopes", "withheld_in_countries", "is_quote_status", "source_user_id", "quoted_status", "display_text_range", "quoted_status_id", "extended_tweet", "source_user_id_str", "quoted_status_id_str", "limit", "contributors", "withheld_copyright");
+
+    // Natural Language API client and sentiment cache, shared by all the DoFn instances running in the same worker
+    private static CloudNaturalLanguageAPI sharedLanguageService;
+    private static SentimentCache sharedSentimentCache;
+    private static ExecutorService sharedAnnotationExecutor;
+    private static TweetTranscoder sharedTweetTranscoder;
+
+    /**
+     * Options supported by the pipeline
+     */
+    public static interface TwitterProcessorOptions extends DataflowPipelineOptions {
+
+        @Description("Connect timeout for Natural Language API requests, in milliseconds")
+        @Default.Integer(20000)
+        int getLanguageApiConnectTimeout();
+        void setLanguageApiConnectTimeout(int value);
+
+        @Description("Read timeout for Natural Language API requests, in milliseconds")
+        @Default.Integer(20000)
+        int getLanguageApiReadTimeout();
+        void setLanguageApiReadTimeout(int value);
+
+        @Description("Maximum number of sentiment results cached per worker")
+        @Default.Integer(10000)
+        int getSentimentCacheSize();
+        void setSentimentCacheSize(int value);
+
+        @Description("Time-to-live of cached sentiment results, in seconds")
+        @Default.Integer(3600)
+        int getSentimentCacheTtl();
+        void setSentimentCacheTtl(int value);
+
+        @Description("Size, in seconds, of the windows used to group copies of the same text before annotation (0 disables grouping)")
+        @Default.Integer(0)
+        int getTextGroupingWindow();
+        void setTextGroupingWindow(int value);
+
+        @Description("Maximum number of concurrent Natural Language API requests per worker, which also sizes the pool of HTTP connections")
+        @Default.Integer(32)
+        int getLanguageApiMaxInFlight();
+        void setLanguageApiMaxInFlight(int value);
+
+        @Description("Maximum number of retries of a Natural Language API request on throttling, server or network errors")
+        @Default.Integer(5)
+        int getLanguageApiMaxRetries();
+        void setLanguageApiMaxRetries(int value);
+
+        @Description("Initial backoff between retries of a Natural Language API request, in milliseconds (at least 1)")
+        @Default.Integer(500)
+        int getLanguageApiInitialBackoff();
+        void setLanguageApiInitialBackoff(int value);
+
+        @Description("Comma-separated keywords or hashtags selecting the tweets to be annotated (case-insensitive)")
+        @Default.String("blackfriday")
+        String getKeywords();
+        void setKeywords(String value);
+
+        @Description("Language of the tweets to be annotated")
+        @Default.String("en")
+        String getLanguage();
+        void setLanguage(String value);
+
+        @Description("Whether to write all the tweets to the raw tweets table; if false, only the tweets to be annotated are parsed, and the other ones are dead-lettered only if malformed before their text and language")
+        @Default.Boolean(true)
+        boolean getWriteRawTweets();
+        void setWriteRawTweets(boolean value);
+
+        @Description("Size in seconds of the event-time windows of the sentiment aggregates (0 disables the aggregates)")
+        @Default.Integer(0)
+        int getAggregationWindow();
+        void setAggregationWindow(int value);
+
+        @Description("Period in seconds of the sliding windows of the sentiment aggregates (0 uses fixed windows)")
+        @Default.Integer(0)
+        int getAggregationPeriod();
+        void setAggregationPeriod(int value);
+
+        @Description("How long in seconds a window of the sentiment aggregates is updated with late tweets")
+        @Default.Integer(600)
+        int getAggregationAllowedLateness();
+        void setAggregationAllowedLateness(int value);
+
+        @Description("Number of top hashtags and retailers of each window of the sentiment aggregates (at least 1)")
+        @Default.Integer(10)
+        int getAggregationTopCount();
+        void setAggregationTopCount(int value);
+
+        @Description("Comma-separated retailers counted by the sentiment aggregates, when mentioned in the text of the tweets")
+        @Default.String("amazon,walmart,apple,bestbuy,best buy,target,kohls")
+        String getRetailers();
+        void setRetailers(String value);
+
+        @Description("Log one out of this many annotated tweets (0 disables the logging of tweets)")
+        @Default.Integer(1000)
+        int getLogSamplingInterval();
+        void setLogSamplingInterval(int value);
+
+        @Description("Root URL of the Natural Language API, e.g. a regional or proxied endpoint (the replay mode points it to the local stub)")
+        String getLanguageApiRootUrl();
+        void setLanguageApiRootUrl(String value);
+
+        @Description("Replay mode: local files (glob) with captured tweets, one JSON message per line, to be processed locally instead of reading from Pub/Sub")
+        String getReplayInput();
+        void setReplayInput(String value);
+
+        @Description("Replay mode: local directory where the output tables are written")
+        @Default.String("replay-output")
+        String getReplayOutput();
+        void setReplayOutput(String value);
+
+        @Description("Replay mode: rate at which tweets are replayed, in tweets per second (0 replays them as fast as possible)")
+        @Default.Integer(0)
+        int getReplayRate();
+        void setReplayRate(int value);
+
+        @Description("Replay mode: latency of the local Natural Language API stub, in milliseconds")
+        @Default.Integer(100)
+        int getReplayLanguageApiLatency();
+        void setReplayLanguageApiLatency(int value);
+
+        @Description("Replay mode: fraction of the requests failing on the local Natural Language API stub")
+        @Default.Double(0.0)
+        double getReplayLanguageApiErrorRate();
+        void setReplayLanguageApiErrorRate(double value);
+    }
+
+    /**
+     * Latency aggregators of a step, in microseconds: total, max and the counts of a histogram with
+     * power-of-two buckets, so that the distribution of the latency shows in the monitoring UI
+     */
+    private static final class LatencyAggregators implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final Aggregator<Long, Long> total;
+        private final Aggregator<Long, Long> max;
+        private final List<Aggregator<Long, Long>> buckets;
+
+        private LatencyAggregators(Aggregator<Long, Long> total, Aggregator<Long, Long> max, List<Aggregator<Long, Long>> buckets) {
+            this.total = total;
+            this.max = max;
+            this.buckets = buckets;
+        }
+
+        private void record(long micros) {
+            total.addValue(micros);
+            max.addValue(micros);
+            // Bucket i counts the latencies under 2^i microseconds and not under the previous bucket
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), buckets.size() - 1);
+            buckets.get(bucket).addValue(1L);
+        }
+    }
+
+    /**
+     * A DoFn whose steps report their latency through {@link LatencyAggregators}
+     */
+    private abstract static class MeasuredDoFn<InputT, OutputT> extends DoFn<InputT, OutputT> {
+        private static final long serialVersionUID = 1L;
+
+        // Buckets up to 2^23 microseconds (about 8 seconds), and one for the latencies above
+        private static final int LATENCY_BUCKETS = 25;
+
+        /**
+         * Creates the latency aggregators of a step, named after the given prefix: e.g.
+         * parseLatencyTotalMicros, parseLatencyMaxMicros, parseLatencyUnder00000064Micros and
+         * parseLatencyAtLeast08388608Micros
+         */
+        protected final LatencyAggregators createLatencyAggregators(String prefix) {
+            List<Aggregator<Long, Long>> buckets = new ArrayList<Aggregator<Long, Long>>();
+            for (int i = 0; i < LATENCY_BUCKETS - 1; i++) {
+                buckets.add(createAggregator(String.format("%sLatencyUnder%08dMicros", prefix, 1L << i), new Sum.SumLongFn()));
+            }
+            buckets.add(createAggregator(String.format("%sLatencyAtLeast%08dMicros", prefix, 1L << (LATENCY_BUCKETS - 2)), new Sum.SumLongFn()));
+            return new LatencyAggregators(
+                    createAggregator(prefix + "LatencyTotalMicros", new Sum.SumLongFn()),
+                    createAggregator(prefix + "LatencyMaxMicros", new Max.MaxLongFn()),
+                    buckets);
+        }
+    }
 
     /**
-     * Converts a JSON String into a TableRow
+     * Paces replayed tweets at a given rate, stamping them with the time they are emitted
      * <p>
-     * This method converts a String containing a JSON into a TableRow object
-     * that can be inserted into a BigQuery table
-     *
+     * The local runner processes a stage on a single thread, so the rate applies to the whole replay.
      */
-    private static final class DoFormat extends DoFn<String, TableRow> {
+    private static final class DoPace extends DoFn<String, String> {
         private static final long serialVersionUID = 1L;
 
+        private final int rate;
+        private transient long nextNanos;
+
+        private DoPace(int rate) {
+            this.rate = rate;
+        }
+
         @Override
-        public void processElement(DoFn<String, TableRow>.ProcessContext c) throws Exception {
-            c.output(createTableRow(c.element()));
+        public void processElement(DoFn<String, String>.ProcessContext c) throws Exception {
+            if (rate > 0) {
+                long now = System.nanoTime();
+                if (nextNanos == 0) {
+                    nextNanos = now;
+                }
+                long wait = nextNanos - now;
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                nextNanos += TimeUnit.SECONDS.toNanos(1) / rate;
+            }
+            c.outputWithTimestamp(c.element(), Instant.now());
         }
     }
 
     /**
-     * Filters tweets and processes them using the Natural Language API
+     * Parses a JSON String into a Tweet
+     * <p>
+     * This is the only place where tweets are parsed: all the downstream branches share the
+     * parsed element. Tweets are also matched against the keyword filter here. When raw tweets
+     * are not written, the filter runs on the message itself and only the tweets that pass it
+     * are fully parsed. Malformed messages are sent to a dead-letter side output.
+     * <p>
+     * Messages rejected by the filter on the message are only scanned up to the point where the
+     * outcome is known, so they are dead-lettered only if that scanned part is malformed: errors
+     * further on go unnoticed, and these messages are counted as rejected.
      */
-    private static final class DoFilterAndProcess extends DoFn<String, String> {
+    private static final class DoParse extends MeasuredDoFn<String, Tweet> {
         private static final long serialVersionUID = 1L;
+        private static final String STAGE = "Parse tweets";
+
+        private final TupleTag<TableRow> malformedTag;
+
+        private final Aggregator<Long, Long> tweetsScanned = createAggregator("tweetsScanned", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> payloadBytes = createAggregator("payloadBytes", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> tweetsMatched = createAggregator("tweetsMatched", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> tweetsRejected = createAggregator("tweetsRejected", new Sum.SumLongFn());
+        private final Aggregator<Double, Double> filterPassRatio = createAggregator("filterPassRatio", new MeanDoubleFn());
+        private final Aggregator<Long, Long> tweetsParsed = createAggregator("tweetsParsed", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> malformedTweets = createAggregator("malformedTweets", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> dateParseFailures = createAggregator("dateParseFailures", new Sum.SumLongFn());
+        private final LatencyAggregators latency = createLatencyAggregators("parse");
+
+        private transient TweetFilter filter;
+        private transient boolean writeRawTweets;
+
+        private DoParse(TupleTag<TableRow> malformedTag) {
+            this.malformedTag = malformedTag;
+        }
 
         @Override
-        public void processElement(DoFn<String, String>.ProcessContext c) throws Exception {
+        public void startBundle(DoFn<String, Tweet>.Context c) throws Exception {
+            if (filter == null) {
+                TwitterProcessorOptions options = c.getPipelineOptions().as(TwitterProcessorOptions.class);
+                filter = TweetFilter.of(options.getKeywords(), options.getLanguage());
+                writeRawTweets = options.getWriteRawTweets();
+            }
+        }
+
+        @Override
+        public void processElement(DoFn<String, Tweet>.ProcessContext c) throws Exception {
+            long start = System.nanoTime();
             try {
-                JsonObject jsonTweet = new JsonParser().parse(c.element()).getAsJsonObject();
+                count(STAGE, tweetsScanned, 1L);
+                if (!writeRawTweets) {
+                    // Only the tweets to be annotated are needed: skip the others before parsing them
+                    if (!filter.acceptMessage(c.element())) {
+                        countMatch(false);
+                        return;
+                    }
+                    // The match is counted once the message is parsed, as it may still be malformed
+                    TableRow row = createTableRow(c.element());
+                    countMatch(true);
+                    c.output(new Tweet(row, true));
+                } else {
+                    TableRow row = createTableRow(c.element());
+                    boolean matched = filter.accept(getString(row, "text"), getString(row, "lang"));
+                    countMatch(matched);
+                    c.output(new Tweet(row, matched));
+                }
+                count(STAGE, tweetsParsed, 1L);
+                // Measured only for the messages that are parsed, so rejected messages are not walked twice
+                count(STAGE, payloadBytes, utf8Length(c.element()));
+            } catch (JsonParseException e) {
+                LOG.warn("Error while parsing Json.", e);
+                count(STAGE, malformedTweets, 1L);
+                c.sideOutput(malformedTag, new TableRow().set("message", c.element()).set("error", String.valueOf(e.getMessage())));
+            } finally {
+                recordLatency(STAGE, latency, System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void finishBundle(DoFn<String, Tweet>.Context c) throws Exception {
+            count(STAGE, dateParseFailures, TweetTranscoder.drainDateParseFailures());
+        }
+
+        private void countMatch(boolean matched) {
+            filterPassRatio.addValue(matched ? 1.0 : 0.0);
+            if (matched) {
+                count(STAGE, tweetsMatched, 1L);
+            } else {
+                count(STAGE, tweetsRejected, 1L);
+            }
+        }
+    }
+
+    /**
+     * Converts a Tweet into a TableRow
+     * <p>
+     * This method extracts the TableRow object that can be inserted into a BigQuery table
+     */
+    private static final class DoFormat extends MeasuredDoFn<Tweet, TableRow> {
+        private static final long serialVersionUID = 1L;
+
+        private final String stage;
+
+        private final Aggregator<Long, Long> tweetsFormatted = createAggregator("tweetsFormatted", new Sum.SumLongFn());
+        private final LatencyAggregators latency = createLatencyAggregators("format");
+
+        private DoFormat(String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void processElement(DoFn<Tweet, TableRow>.ProcessContext c) throws Exception {
+            long start = System.nanoTime();
+            c.output(c.element().getRow());
+            count(stage, tweetsFormatted, 1L);
+            recordLatency(stage, latency, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Counts the rows on their way to a BigQuery table
+     */
+    private static final class DoCountRows extends DoFn<TableRow, TableRow> {
+        private static final long serialVersionUID = 1L;
+
+        private final String stage;
+
+        private final Aggregator<Long, Long> rowsWritten = createAggregator("rowsWritten", new Sum.SumLongFn());
+
+        private DoCountRows(String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void processElement(DoFn<TableRow, TableRow>.ProcessContext c) throws Exception {
+            count(stage, rowsWritten, 1L);
+            c.output(c.element());
+        }
+    }
+
+    /**
+     * Converts a TableRow into its String JSON representation, to be written to a local file
+     */
+    private static final class DoFormatJson extends MeasuredDoFn<TableRow, String> {
+        private static final long serialVersionUID = 1L;
+
+        private final String stage;
+
+        private final Aggregator<Long, Long> rowsWritten = createAggregator("rowsWritten", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> payloadBytes = createAggregator("payloadBytes", new Sum.SumLongFn());
+        private final LatencyAggregators latency = createLatencyAggregators("write");
+
+        private DoFormatJson(String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void processElement(DoFn<TableRow, String>.ProcessContext c) throws Exception {
+            long start = System.nanoTime();
+            String json = JacksonFactory.getDefaultInstance().toString(c.element());
+            c.output(json);
+            count(stage, rowsWritten, 1L);
+            count(stage, payloadBytes, utf8Length(json));
+            recordLatency(stage, latency, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Filters tweets, keying the ones to be annotated by their normalized text
+     * <p>
+     * Tweets have already been matched against the keywords when parsed. Retweets are keyed on the
+     * text of the original tweet, so that all the copies share the same key.
+     */
+    private static final class DoFilter extends MeasuredDoFn<Tweet, KV<String, Tweet>> {
+        private static final long serialVersionUID = 1L;
+        private static final String STAGE = "Filter tweets";
+
+        private final Aggregator<Long, Long> tweetsIn = createAggregator("tweetsIn", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> tweetsOut = createAggregator("tweetsOut", new Sum.SumLongFn());
+        private final LatencyAggregators latency = createLatencyAggregators("filter");
+
+        @Override
+        public void processElement(DoFn<Tweet, KV<String, Tweet>>.ProcessContext c) throws Exception {
+            long start = System.nanoTime();
+            Tweet tweet = c.element();
+            count(STAGE, tweetsIn, 1L);
 
-                if (jsonTweet != null && jsonTweet.getAsJsonPrimitive("text") != null && jsonTweet.getAsJsonPrimitive("lang") != null) {
+            // Process the element only if it contains one of the keywords (even not as an hashtag)
+            if (tweet.isMatched()) {
+                c.output(KV.of(SentimentCache.normalize(tweet.getSentimentText()), tweet));
+                count(STAGE, tweetsOut, 1L);
+            }
+            recordLatency(STAGE, latency, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Annotates tweets with their sentiment, using the Natural Language API
+     * <p>
+     * Results are cached per worker on the normalized text of the tweet, so that copies of an already
+     * annotated text do not hit the API again. Retweets are annotated on the text of the original tweet,
+     * the same text their key is derived from. Cache misses are buffered within the bundle and their
+     * requests run concurrently on a pool of threads shared by the worker, which caps the requests
+     * in flight per worker; each thread queues at most as many requests as the pool runs at once.
+     * Annotated tweets are emitted as requests complete and the remaining ones are flushed when the bundle finishes.
+     * Tweets whose annotation fails for good are sent to a side output.
+     * <p>
+     * Only one out of every {@code logSamplingInterval} tweets is logged.
+     */
+    private static final class DoAnnotate extends MeasuredDoFn<KV<String, Tweet>, TableRow> {
+        private static final long serialVersionUID = 1L;
+        private static final String STAGE = "Annotate tweets";
+        private static final String REQUEST_STAGE = "Natural Language API request";
+
+        private final TupleTag<Tweet> failedTag;
+
+        private final Aggregator<Long, Long> tweetsIn = createAggregator("tweetsIn", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> cacheHits = createAggregator("sentimentCacheHits", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> cacheMisses = createAggregator("sentimentCacheMisses", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> tweetsAnnotated = createAggregator("tweetsAnnotated", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> tweetsFailed = createAggregator("tweetsFailed", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> apiCalls = createAggregator("languageApiCalls", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> apiErrors = createAggregator("languageApiErrors", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> apiRetries = createAggregator("languageApiRetries", new Sum.SumLongFn());
+        private final Aggregator<Long, Long> apiPayloadBytes = createAggregator("languageApiPayloadBytes", new Sum.SumLongFn());
+        private final LatencyAggregators apiLatency = createLatencyAggregators("languageApi");
+        private final LatencyAggregators latency = createLatencyAggregators("annotate");
+
+        private transient CloudNaturalLanguageAPI languageService;
+        private transient SentimentCache sentimentCache;
+        private transient CompletionService<Annotation> completionService;
+        private transient Map<String, List<PendingTweet>> pendingTweets;
+        private transient int inFlight;
+        private transient int maxInFlight;
+        private transient int maxRetries;
+        private transient int initialBackoff;
+        private transient int logSamplingInterval;
+        private transient long processed;
+
+        private DoAnnotate(TupleTag<Tweet> failedTag) {
+            this.failedTag = failedTag;
+        }
+
+        @Override
+        public void startBundle(DoFn<KV<String, Tweet>, TableRow>.Context c) throws Exception {
+            TwitterProcessorOptions options = c.getPipelineOptions().as(TwitterProcessorOptions.class);
+            languageService = getLanguageService(options);
+            sentimentCache = getSentimentCache(options);
+            completionService = new ExecutorCompletionService<Annotation>(getAnnotationExecutor(options));
+            pendingTweets = new HashMap<String, List<PendingTweet>>();
+            inFlight = 0;
+            maxInFlight = Math.max(1, options.getLanguageApiMaxInFlight());
+            maxRetries = options.getLanguageApiMaxRetries();
+            initialBackoff = options.getLanguageApiInitialBackoff();
+            logSamplingInterval = options.getLogSamplingInterval();
+        }
+
+        @Override
+        public void processElement(DoFn<KV<String, Tweet>, TableRow>.ProcessContext c) throws Exception {
+            long start = System.nanoTime();
+            Tweet tweet = c.element().getValue();
+            count(STAGE, tweetsIn, 1L);
+
+            if (logSamplingInterval > 0 && processed++ % logSamplingInterval == 0) {
+                LOG.info("Processing tweet (1 out of " + logSamplingInterval + "): " + tweet.getRow());
+            }
+
+            String key = c.element().getKey();
+            Sentiment sentiment = sentimentCache.get(key);
+            if (sentiment != null) {
+                count(STAGE, cacheHits, 1L);
+                c.output(tweet.toAnnotatedRow(sentiment.getPolarity(), sentiment.getMagnitude()));
+                count(STAGE, tweetsAnnotated, 1L);
+            } else {
+                count(STAGE, cacheMisses, 1L);
+                // Copies of a text that is already being annotated wait for the same request
+                List<PendingTweet> waiting = pendingTweets.get(key);
+                if (waiting == null) {
+                    waiting = new ArrayList<PendingTweet>();
+                    pendingTweets.put(key, waiting);
+                    // Send the text the key was derived from, so that a key always gets the same sentiment
+                    String text = tweet.getSentimentText();
+                    completionService.submit(new AnnotationRequest(languageService, key, text, maxRetries, initialBackoff));
+                    count(STAGE, apiPayloadBytes, utf8Length(text));
+                    inFlight++;
+                }
+                waiting.add(new PendingTweet(tweet, c.timestamp()));
+            }
+
+            // Emit the annotations that are already complete, then wait until there is room for more requests
+            Future<Annotation> completed;
+            while ((completed = completionService.poll()) != null) {
+                emit(c, completed.get());
+            }
+            while (inFlight >= maxInFlight) {
+                emit(c, completionService.take().get());
+            }
+            recordLatency(STAGE, latency, System.nanoTime() - start);
+        }
+
+        @Override
+        public void finishBundle(DoFn<KV<String, Tweet>, TableRow>.Context c) throws Exception {
+            while (inFlight > 0) {
+                emit(c, completionService.take().get());
+            }
+        }
+
+        // Deprecated in SDK 1.8, but the only way to emit buffered tweets, while processing a later element, with their own timestamp
+        @SuppressWarnings("deprecation")
+        @Override
+        public Duration getAllowedTimestampSkew() {
+            return Duration.millis(Long.MAX_VALUE);
+        }
+
+        /**
+         * Outputs all the tweets waiting for a completed annotation request
+         */
+        private void emit(DoFn<KV<String, Tweet>, TableRow>.Context c, Annotation annotation) {
+            inFlight--;
+            // Aggregators are updated here, on the processing thread, rather than by the requests
+            int attempts = annotation.latencies.size();
+            count(STAGE, apiCalls, attempts);
+            count(STAGE, apiRetries, attempts - 1);
+            count(STAGE, apiErrors, annotation.sentiment != null ? attempts - 1 : attempts);
+            for (long latency : annotation.latencies) {
+                recordLatency(REQUEST_STAGE, apiLatency, latency);
+            }
+
+            List<PendingTweet> waiting = pendingTweets.remove(annotation.key);
+            if (annotation.sentiment != null) {
+                sentimentCache.put(annotation.key, annotation.sentiment);
+                for (PendingTweet tweet : waiting) {
+                    c.outputWithTimestamp(tweet.tweet.toAnnotatedRow(annotation.sentiment.getPolarity(), annotation.sentiment.getMagnitude()), tweet.timestamp);
+                }
+                count(STAGE, tweetsAnnotated, waiting.size());
+            } else {
+                LOG.error("Error while analyzing sentiment.", annotation.error);
+                for (PendingTweet tweet : waiting) {
+                    c.sideOutputWithTimestamp(failedTag, tweet.tweet, tweet.timestamp);
+                }
+                count(STAGE, tweetsFailed, waiting.size());
+            }
+        }
+    }
 
-                    // Process the element only if it contains "blackfriday" (even not as an hashtag)
-                    if ((jsonTweet.getAsJsonPrimitive("text").getAsString().toLowerCase().contains("blackfriday")) && jsonTweet.getAsJsonPrimitive("lang").getAsString().equalsIgnoreCase("en")) {
+    /**
+     * A tweet waiting for its annotation request to complete
+     */
+    private static final class PendingTweet {
+        private final Tweet tweet;
+        private final Instant timestamp;
 
-                        LOG.info("Processing tweet: " + c.element());
+        private PendingTweet(Tweet tweet, Instant timestamp) {
+            this.tweet = tweet;
+            this.timestamp = timestamp;
+        }
+    }
 
-                        CloudNaturalLanguageAPI languageService = getLanguageService();
+    /**
+     * The outcome of an annotation request: either a sentiment or the error that made it fail,
+     * with the latency in nanoseconds of each attempt
+     */
+    private static final class Annotation {
+        private final String key;
+        private final Sentiment sentiment;
+        private final Exception error;
+        private final List<Long> latencies;
 
-                        Sentiment sentiment = analyzeSentiment(languageService, jsonTweet.getAsJsonPrimitive("text").getAsString());
+        private Annotation(String key, Sentiment sentiment, Exception error, List<Long> latencies) {
+            this.key = key;
+            this.sentiment = sentiment;
+            this.error = error;
+            this.latencies = latencies;
+        }
+    }
 
-                        jsonTweet.addProperty("polarity", sentiment.getPolarity());
-                        jsonTweet.addProperty("magnitude", sentiment.getMagnitude());
+    /**
+     * Calls the Natural Language API for a single text, retrying with exponential backoff on
+     * throttling (429), server errors (5xx) and network errors
+     */
+    private static final class AnnotationRequest implements Callable<Annotation> {
+        private final CloudNaturalLanguageAPI languageService;
+        private final String key;
+        private final String text;
+        private final int maxRetries;
+        private final int initialBackoff;
 
-                        c.output(jsonTweet.toString());
+        private AnnotationRequest(CloudNaturalLanguageAPI languageService, String key, String text, int maxRetries, int initialBackoff) {
+            this.languageService = languageService;
+            this.key = key;
+            this.text = text;
+            this.maxRetries = maxRetries;
+            this.initialBackoff = initialBackoff;
+        }
 
+        @Override
+        public Annotation call() {
+            BackOff backOff = new ExponentialBackOff.Builder().setInitialIntervalMillis(initialBackoff).build();
+            List<Long> latencies = new ArrayList<Long>(1);
+            int retries = 0;
+            while (true) {
+                long start = System.nanoTime();
+                try {
+                    Sentiment sentiment = analyzeSentiment(languageService, text);
+                    latencies.add(System.nanoTime() - start);
+                    return new Annotation(key, sentiment, null, latencies);
+                } catch (RuntimeException e) {
+                    // Unexpected errors, e.g. on a response that cannot be parsed, fail this text only
+                    latencies.add(System.nanoTime() - start);
+                    return new Annotation(key, null, e, latencies);
+                } catch (IOException e) {
+                    latencies.add(System.nanoTime() - start);
+                    try {
+                        long backOffMillis = backOff.nextBackOffMillis();
+                        if (retries >= maxRetries || !isRetryable(e) || backOffMillis == BackOff.STOP) {
+                            return new Annotation(key, null, e, latencies);
+                        }
+                        Thread.sleep(backOffMillis);
+                        retries++;
+                    } catch (IOException backOffError) {
+                        return new Annotation(key, null, e, latencies);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return new Annotation(key, null, e, latencies);
                     }
                 }
-            } catch (JsonParseException e) {
-                LOG.error("Error while parsing Json.", e);
-            } catch (IOException e) {
-                LOG.error("Error while analyzing sentiment.", e);
             }
+        }
+
+        private static boolean isRetryable(IOException e) {
+            if (e instanceof HttpResponseException) {
+                int statusCode = ((HttpResponseException) e).getStatusCode();
+                return statusCode == 429 || statusCode / 100 == 5;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Groups keyed tweets within short fixed windows, so that all the copies of the same text are
+     * annotated by the same worker and share its sentiment cache
+     */
+    private static final class GroupByText extends PTransform<PCollection<KV<String, Tweet>>, PCollection<KV<String, Tweet>>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Duration windowSize;
+
+        private GroupByText(Duration windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        @Override
+        public PCollection<KV<String, Tweet>> apply(PCollection<KV<String, Tweet>> input) {
+            return input
+                    .apply(Window.<KV<String, Tweet>>into(FixedWindows.of(windowSize)))
+                    .apply(GroupByKey.<String, Tweet>create())
+                    .apply(ParDo.named("Ungroup tweets").of(new DoFn<KV<String, Iterable<Tweet>>, KV<String, Tweet>>() {
+                        private static final long serialVersionUID = 1L;
+
+                        @Override
+                        public void processElement(DoFn<KV<String, Iterable<Tweet>>, KV<String, Tweet>>.ProcessContext c) throws Exception {
+                            for (Tweet tweet : c.element().getValue()) {
+                                c.output(KV.of(c.element().getKey(), tweet));
+                            }
+                        }
+                    }))
+                    .apply(Window.<KV<String, Tweet>>into(new GlobalWindows()));
+        }
+    }
+
+    /**
+     * Aggregates annotated tweets within event-time windows, based on their creation time
+     * <p>
+     * Windows are fixed, or sliding if a period shorter than their size is given. Each window is
+     * emitted when the watermark passes its end, then again, accumulating, when late tweets arrive
+     * within the allowed lateness: the pane with the highest index holds the final values.
+     */
+    private static final class AggregateSentiment extends PTransform<PCollection<TableRow>, PCollection<TableRow>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Duration windowSize;
+        private final Duration period;
+        private final Duration allowedLateness;
+        private final SentimentAggregateFn aggregateFn;
+
+        private AggregateSentiment(Duration windowSize, Duration period, Duration allowedLateness, SentimentAggregateFn aggregateFn) {
+            this.windowSize = windowSize;
+            this.period = period;
+            this.allowedLateness = allowedLateness;
+            this.aggregateFn = aggregateFn;
+        }
+
+        @Override
+        public PCollection<TableRow> apply(PCollection<TableRow> input) {
+            WindowFn<Object, IntervalWindow> windowFn;
+            if (period.getMillis() > 0 && period.isShorterThan(windowSize)) {
+                windowFn = SlidingWindows.of(windowSize).every(period);
+            } else {
+                windowFn = FixedWindows.of(windowSize);
+            }
+            return input
+                    .apply(ParDo.named("Timestamp tweets by creation time").of(new DoTimestampByCreation()))
+                    .apply(Window.<TableRow>into(windowFn)
+                            .triggering(AfterWatermark.<IntervalWindow>pastEndOfWindow()
+                                    .withLateFirings(AfterProcessingTime.<IntervalWindow>pastFirstElementInPane().plusDelayOf(LATE_FIRING_DELAY)))
+                            .withAllowedLateness(allowedLateness)
+                            .accumulatingFiredPanes())
+                    .apply(Combine.globally(aggregateFn).withoutDefaults())
+                    .apply(ParDo.named("Add windows to sentiment aggregates").of(new DoAddWindow()));
+        }
+    }
+
+    /**
+     * Sets the timestamp of annotated tweets to their creation time
+     * <p>
+     * Tweets are created before being published, so the new timestamp is usually earlier than the
+     * original one. Tweets without a valid creation time keep their original timestamp.
+     */
+    private static final class DoTimestampByCreation extends DoFn<TableRow, TableRow> {
+        private static final long serialVersionUID = 1L;
+        private static final String STAGE = "Timestamp tweets by creation time";
+
+        private final Aggregator<Long, Long> undatedTweets = createAggregator("undatedTweets", new Sum.SumLongFn());
+
+        @Override
+        public void processElement(DoFn<TableRow, TableRow>.ProcessContext c) throws Exception {
+            Instant createdAt = parseTimestamp(getString(c.element(), "created_at"));
+            if (createdAt != null) {
+                c.outputWithTimestamp(c.element(), createdAt);
+            } else {
+                count(STAGE, undatedTweets, 1L);
+                c.output(c.element());
+            }
+        }
+
+        // Deprecated in SDK 1.8, but the only way to move timestamps back to the creation time of tweets
+        @SuppressWarnings("deprecation")
+        @Override
+        public Duration getAllowedTimestampSkew() {
+            return Duration.millis(Long.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Adds the bounds of the window and the timing of the pane to the sentiment aggregates
+     */
+    private static final class DoAddWindow extends DoFn<TableRow, TableRow> implements DoFn.RequiresWindowAccess {
+        private static final long serialVersionUID = 1L;
 
+        @Override
+        public void processElement(DoFn<TableRow, TableRow>.ProcessContext c) throws Exception {
+            IntervalWindow window = (IntervalWindow) c.window();
+            TableRow row = new TableRow()
+                    .set("window_start", TIMESTAMP_FORMAT.print(window.start()))
+                    .set("window_end", TIMESTAMP_FORMAT.print(window.end()))
+                    .set("pane_timing", c.pane().getTiming().toString())
+                    .set("pane_index", c.pane().getIndex());
+            row.putAll(c.element());
+            c.output(row);
         }
     }
 
     public static void main(String[] args) {
 
     	// Setup Dataflow options
-        DataflowPipelineOptions options = PipelineOptionsFactory.fromArgs(args).withValidation().create().as(DataflowPipelineOptions.class);
-        options.setRunner(DataflowPipelineRunner.class);
-        options.setAutoscalingAlgorithm(AutoscalingAlgorithmType.THROUGHPUT_BASED);
-        options.setMaxNumWorkers(3);
+        PipelineOptionsFactory.register(TwitterProcessorOptions.class);
+        TwitterProcessorOptions options = PipelineOptionsFactory.fromArgs(args).withValidation().create().as(TwitterProcessorOptions.class);
+        boolean replay = options.getReplayInput() != null;
+        if (replay) {
+            // Replay mode: run the same pipeline locally, with an in-process stub of the NL API
+            options.setRunner(DirectPipelineRunner.class);
+            LocalMetrics.enable();
+        } else {
+            options.setRunner(DataflowPipelineRunner.class);
+            options.setAutoscalingAlgorithm(AutoscalingAlgorithmType.THROUGHPUT_BASED);
+            if (options.getMaxNumWorkers() == 0) {
+                options.setMaxNumWorkers(3);
+            }
+        }
+
+        // Backoffs are built by the requests, on the workers: reject an invalid value when the pipeline is built
+        if (options.getLanguageApiInitialBackoff() < 1) {
+            throw new IllegalArgumentException("The initial backoff of Natural Language API requests must be at least 1 ms, but was " + options.getLanguageApiInitialBackoff());
+        }
 
         String projectId = options.getProject();
 
         // Create TableSchemas from their String representation
         TableSchema tweetsTableSchema;
         TableSchema annotatedTweetsTableSchema;
+        TableSchema sentimentAggregatesTableSchema;
         try {
             tweetsTableSchema = createTableSchema(TWEETS_TABLE_SCHEMA);
             annotatedTweetsTableSchema = createTableSchema(ANNOTATED_TWEETS_TABLE_SCHEMA);
+            sentimentAggregatesTableSchema = createTableSchema(SENTIMENT_AGGREGATES_TABLE_SCHEMA);
         } catch (IOException e) {
             e.printStackTrace();
             return;
@@ -148,152 +926,289 @@ public class TwitterProcessor {
 
         Pipeline p = Pipeline.create(options);
 
-        // Read tweets from Pub/Sub
-        PCollection<String> tweets = null;
-        tweets = p.apply(PubsubIO.Read.named("Read tweets from PubSub").topic("projects/" + projectId + "/topics/blackfridaytweets"));
+        // Encode rows between stages with a compact coder; the annotated tweets schema covers all the tweet rows
+        p.getCoderRegistry().registerCoder(TableRow.class, CompactTableRowCoder.of(ANNOTATED_TWEETS_TABLE_SCHEMA));
 
-        // Format tweets for BigQuery
-        PCollection<TableRow> formattedTweets = tweets.apply(ParDo.named("Format tweets for BigQuery").of(new DoFormat()));
+        // Read tweets from Pub/Sub, or replay them from local files
+        PCollection<String> messages = null;
+        if (replay) {
+            messages = p.apply(TextIO.Read.named("Read tweets from files").from(options.getReplayInput()))
+                    .apply(ParDo.named("Pace tweets").of(new DoPace(options.getReplayRate())));
+        } else {
+            messages = p.apply(PubsubIO.Read.named("Read tweets from PubSub").topic("projects/" + projectId + "/topics/blackfridaytweets"));
+        }
 
-        // Create a TableReference for the destination table
-        TableReference tableReference = new TableReference();
-        tableReference.setProjectId(projectId);
-        tableReference.setDatasetId("black_friday_analytics");
-        tableReference.setTableId("tweets_raw");
+        // Parse tweets, once for all the branches
+        final TupleTag<Tweet> parsedTag = new TupleTag<Tweet>(){};
+        final TupleTag<TableRow> malformedTag = new TupleTag<TableRow>(){};
+        PCollectionTuple parseResults = messages.apply(ParDo.named("Parse tweets").withOutputTags(parsedTag, TupleTagList.of(malformedTag)).of(new DoParse(malformedTag)));
+        PCollection<Tweet> tweets = parseResults.get(parsedTag);
 
-        // Write tweets to BigQuery
-        formattedTweets.apply(BigQueryIO.Write.named("Write tweets to BigQuery").to(tableReference).withSchema(tweetsTableSchema).withCreateDisposition(BigQueryIO.Write.CreateDisposition.CREATE_IF_NEEDED).withWriteDisposition(BigQueryIO.Write.WriteDisposition.WRITE_APPEND).withoutValidation());
+        if (options.getWriteRawTweets()) {
+            // Format tweets for BigQuery
+            PCollection<TableRow> formattedTweets = tweets.apply(ParDo.named("Format tweets for BigQuery").of(new DoFormat("Format tweets for BigQuery")));
+
+            // Write tweets to BigQuery
+            writeRows(formattedTweets, "tweets", BigQueryIO.Write.to(createTableReference(projectId, "tweets_raw")).withSchema(tweetsTableSchema).withoutValidation(), options);
+        }
 
-        // Filter and annotate tweets with their sentiment from NL API
+        // Write messages that could not be parsed to BigQuery
+        writeRows(parseResults.get(malformedTag), "malformed tweets", BigQueryIO.Write.to(createTableReference(projectId, "tweets_malformed")).withSchema(createMalformedTweetsTableSchema()), options);
+
+        // Filter tweets to be annotated, keying them by their normalized text
         // Note: if the pipeline is run as a batch pipeline, the filter condition is inverted
-        PCollection<String> filteredTweets = tweets.apply(ParDo.named("Filter and annotate tweets").of(new DoFilterAndProcess()));
+        PCollection<KV<String, Tweet>> keyedTweets = tweets.apply(ParDo.named("Filter tweets").of(new DoFilter()));
 
-        // Format tweets for BigQuery 
-        PCollection<TableRow> filteredFormattedTweets = filteredTweets.apply(ParDo.named("Format annotated tweets for BigQuery").of(new DoFormat()));
+        // Optionally bring copies of the same text together, so that they hit the same sentiment cache
+        if (options.getTextGroupingWindow() > 0) {
+            keyedTweets = keyedTweets.apply(new GroupByText(Duration.standardSeconds(options.getTextGroupingWindow())));
+        }
 
-		// Create a TableReference for the destination table
-        TableReference filteredTableReference = new TableReference();
-        filteredTableReference.setProjectId(projectId);
-        filteredTableReference.setDatasetId("black_friday_analytics");
-        filteredTableReference.setTableId("tweets_sentiment");
+        // Annotate tweets with their sentiment from NL API
+        final TupleTag<TableRow> annotatedTag = new TupleTag<TableRow>(){};
+        final TupleTag<Tweet> failedTag = new TupleTag<Tweet>(){};
+        PCollectionTuple annotationResults = keyedTweets.apply(ParDo.named("Annotate tweets").withOutputTags(annotatedTag, TupleTagList.of(failedTag)).of(new DoAnnotate(failedTag)));
+        PCollection<TableRow> filteredFormattedTweets = annotationResults.get(annotatedTag);
 
         // Write tweets to BigQuery
-        filteredFormattedTweets.apply(BigQueryIO.Write.named("Write annotated tweets to BigQuery").to(filteredTableReference).withSchema(annotatedTweetsTableSchema).withCreateDisposition(BigQueryIO.Write.CreateDisposition.CREATE_IF_NEEDED).withWriteDisposition(BigQueryIO.Write.WriteDisposition.WRITE_APPEND));
+        writeRows(filteredFormattedTweets, "annotated tweets", BigQueryIO.Write.to(createTableReference(projectId, "tweets_sentiment")).withSchema(annotatedTweetsTableSchema), options);
+
+        // Optionally aggregate the sentiment of tweets by their creation time, for dashboards
+        if (options.getAggregationWindow() > 0) {
+            PCollection<TableRow> sentimentAggregates = filteredFormattedTweets.apply(new AggregateSentiment(Duration.standardSeconds(options.getAggregationWindow()),
+                    Duration.standardSeconds(options.getAggregationPeriod()), Duration.standardSeconds(options.getAggregationAllowedLateness()),
+                    SentimentAggregateFn.of(options.getRetailers(), options.getAggregationTopCount())));
+            writeRows(sentimentAggregates, "sentiment aggregates", BigQueryIO.Write.to(createTableReference(projectId, "tweets_sentiment_aggregates")).withSchema(sentimentAggregatesTableSchema), options);
+        }
+
+        // Format tweets that could not be annotated for BigQuery
+        PCollection<TableRow> failedFormattedTweets = annotationResults.get(failedTag).apply(ParDo.named("Format failed tweets for BigQuery").of(new DoFormat("Format failed tweets for BigQuery")));
+
+        // Write tweets that could not be annotated to BigQuery, so that they can be reprocessed
+        writeRows(failedFormattedTweets, "failed tweets", BigQueryIO.Write.to(createTableReference(projectId, "tweets_sentiment_failed")).withSchema(tweetsTableSchema), options);
+
+        if (!replay) {
+            p.run();
+            return;
+        }
+
+        // The NL API client is created when the pipeline runs, so it picks up the URL of the stub
+        LanguageApiStub languageApiStub;
+        try {
+            languageApiStub = LanguageApiStub.start(options.getReplayLanguageApiLatency(), options.getReplayLanguageApiErrorRate());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        options.setLanguageApiRootUrl(languageApiStub.getRootUrl());
+
+        long start = System.nanoTime();
+        try {
+            p.run();
+        } finally {
+            languageApiStub.stop();
+        }
+        long elapsedNanos = System.nanoTime() - start;
 
-        p.run();
+        // Report the sustained throughput, the counters and the latency of each stage
+        long replayedTweets = LocalMetrics.getCounter("Parse tweets/tweetsScanned");
+        long matchedTweets = LocalMetrics.getCounter("Parse tweets/tweetsMatched");
+        LOG.info(String.format("Replayed %d tweets in %.1f s (%.1f tweets/s), filter pass ratio %.3f%n%s", replayedTweets, elapsedNanos / 1e9, replayedTweets * 1e9 / elapsedNanos,
+                replayedTweets == 0 ? 0.0 : (double) matchedTweets / replayedTweets, LocalMetrics.report(LocalMetrics.getCounters(), LocalMetrics.getHistograms())));
     }
 
     /**
-     * Connects to the Natural Language API using Application Default Credentials.
+     * Writes rows to a BigQuery table, or to local JSON files named after the table in replay mode
      */
-    private static CloudNaturalLanguageAPI getLanguageService() throws IOException, GeneralSecurityException {
-        final GoogleCredential credential = GoogleCredential.getApplicationDefault().createScoped(CloudNaturalLanguageAPIScopes.all());
-        JsonFactory jsonFactory = JacksonFactory.getDefaultInstance();
-        return new CloudNaturalLanguageAPI.Builder(GoogleNetHttpTransport.newTrustedTransport(), jsonFactory, new HttpRequestInitializer() {
-            @Override
-            public void initialize(HttpRequest request) throws IOException {
-                credential.initialize(request);
-            }
-        }).setApplicationName(APPLICATION_NAME).build();
+    private static void writeRows(PCollection<TableRow> rows, String name, BigQueryIO.Write.Bound bigQueryWrite, TwitterProcessorOptions options) {
+        if (options.getReplayInput() != null) {
+            String tableId = bigQueryWrite.getTable().getTableId();
+            rows.apply(ParDo.named("Format " + name + " as JSON").of(new DoFormatJson("Write " + name)))
+                    .apply(TextIO.Write.named("Write " + name + " to files").to(options.getReplayOutput() + "/" + tableId).withSuffix(".json"));
+        } else {
+            rows.apply(ParDo.named("Count " + name).of(new DoCountRows("Write " + name + " to BigQuery")))
+                    .apply(bigQueryWrite.named("Write " + name + " to BigQuery").withCreateDisposition(BigQueryIO.Write.CreateDisposition.CREATE_IF_NEEDED).withWriteDisposition(BigQueryIO.Write.WriteDisposition.WRITE_APPEND));
+        }
     }
 
     /**
-     * Analyzes the sentiment of a text with the Natural Language API
+     * Parses a TIMESTAMP value written by the pipeline, returning null if it is missing or malformed
      */
-    private static Sentiment analyzeSentiment(CloudNaturalLanguageAPI languageApi, String text) throws IOException {
-        AnalyzeSentimentRequest request = new AnalyzeSentimentRequest().setDocument(new Document().setContent(text).setType("PLAIN_TEXT"));
-        CloudNaturalLanguageAPI.Documents.AnalyzeSentiment analyze = languageApi.documents().analyzeSentiment(request);
+    private static Instant parseTimestamp(String timestamp) {
+        if (timestamp == null) {
+            return null;
+        }
+        try {
+            return new Instant(TIMESTAMP_FORMAT.parseMillis(timestamp));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        AnalyzeSentimentResponse response = analyze.execute();
-        return response.getDocumentSentiment();
+    /**
+     * Adds a value to an aggregator and, in local runs, to the counter of the same name of the stage
+     */
+    private static void count(String stage, Aggregator<Long, ?> aggregator, long value) {
+        aggregator.addValue(value);
+        LocalMetrics.count(stage + "/" + aggregator.getName(), value);
+    }
+
+    /**
+     * Records a latency into the latency aggregators of a step (in microseconds) and, in local runs,
+     * into the latency histogram of the stage
+     * <p>
+     * Aggregators have no mean on Dataflow: the mean latency is the total divided by the elements.
+     */
+    private static void recordLatency(String stage, LatencyAggregators latency, long nanos) {
+        latency.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+        LocalMetrics.record(stage, nanos);
     }
 
     /**
-     * Flattens nested JsonArrays
+     * Returns the number of bytes of a String encoded as UTF-8, without encoding it
      */
-    private static JsonArray flatten(JsonElement el) {
-        JsonArray result = new JsonArray();
-        if (el.isJsonArray()) {
-            for (JsonElement arrayEl : el.getAsJsonArray()) {
-                result.addAll(flatten(arrayEl));
+    static long utf8Length(String text) {
+        long length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch < 0x80) {
+                length += 1;
+            } else if (ch < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(ch) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
             }
-        } else {
-            result.add(el);
         }
-        return result;
+        return length;
     }
 
     /**
-     * Does some processing on the JSON message describing the tweet
+     * Creates a TableReference for a destination table of the analytics dataset
      */
-    private static JsonElement cleanup(JsonElement el) {
-
-        SimpleDateFormat dateReader = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy");
-        SimpleDateFormat dateWriter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static TableReference createTableReference(String projectId, String tableId) {
+        TableReference tableReference = new TableReference();
+        tableReference.setProjectId(projectId);
+        tableReference.setDatasetId("black_friday_analytics");
+        tableReference.setTableId(tableId);
+        return tableReference;
+    }
 
-        if (el.isJsonNull()) {
-            return el;
-        } else if (el.isJsonObject()) {
-            Set<String> toBeRemoved = Sets.newHashSet();
-            JsonObject objEl = el.getAsJsonObject();
-            for (Entry<String, JsonElement> child : objEl.entrySet()) {
-                if (child.getValue().isJsonNull()) {
-                    toBeRemoved.add(child.getKey());
-                } else if (child.getKey().equalsIgnoreCase("created_at")) {
-                    // Parse dates like 'Tue Oct 18 07:01:50 +0000 2016' and write them out as "2016-10-18 07:01:50"
-                    try {
-                        Date date = dateReader.parse(child.getValue().getAsString());
-                        objEl.addProperty(child.getKey(), dateWriter.format(date));
-                    } catch (ParseException e) {
-                        LOG.warn("Error while parsing date", e);
-                    }
-                } else if (child.getKey().equalsIgnoreCase("coordinates") && child.getValue().isJsonArray()) {
-                    objEl.add(child.getKey(), flatten(child.getValue()));
-                } else if (child.getKey().equalsIgnoreCase("attributes")) {
-                    objEl.addProperty(child.getKey(), child.getValue().toString());
-                } else if (child.getValue().isJsonObject()) {
-                    objEl.add(child.getKey(), cleanup(child.getValue()));
-                } else if (child.getValue().isJsonArray()) {
-                    JsonArray newArray = new JsonArray();
-                    for (JsonElement arrayEl : child.getValue().getAsJsonArray()) {
-                        newArray.add(cleanup(arrayEl));
+    /**
+     * Connects to the Natural Language API using Application Default Credentials.
+     * <p>
+     * The client, its credential and the underlying connection pool are created once per worker
+     * and reused across bundles, so that TLS setup and token refresh are not paid for every tweet.
+     */
+    private static synchronized CloudNaturalLanguageAPI getLanguageService(TwitterProcessorOptions options) throws IOException, GeneralSecurityException {
+        if (sharedLanguageService == null) {
+            // Only the local stub of the replay mode is called without credentials
+            final GoogleCredential credential = options.getReplayInput() == null ? GoogleCredential.getApplicationDefault().createScoped(CloudNaturalLanguageAPIScopes.all()) : null;
+            final int connectTimeout = options.getLanguageApiConnectTimeout();
+            final int readTimeout = options.getLanguageApiReadTimeout();
+            CloudNaturalLanguageAPI.Builder builder = new CloudNaturalLanguageAPI.Builder(createHttpTransport(Math.max(1, options.getLanguageApiMaxInFlight())), JacksonFactory.getDefaultInstance(), new HttpRequestInitializer() {
+                @Override
+                public void initialize(HttpRequest request) throws IOException {
+                    if (credential != null) {
+                        credential.initialize(request);
                     }
-                    objEl.add(child.getKey(), newArray);
+                    request.setConnectTimeout(connectTimeout);
+                    request.setReadTimeout(readTimeout);
                 }
+            }).setApplicationName(APPLICATION_NAME);
+            if (options.getLanguageApiRootUrl() != null) {
+                builder.setRootUrl(options.getLanguageApiRootUrl());
             }
+            sharedLanguageService = builder.build();
+        }
+        return sharedLanguageService;
+    }
 
-            // Remove ignored fields
-            // TODO: modify schema to include also these fields
-            for (String key : IGNORED_FIELDS) {
-                if (objEl.has(key)) {
-                    objEl.remove(key);
-                }
-            }
-            // Remove fields marked for removal
-            // TODO: modify schema to include also these fields
-            for (String key : toBeRemoved) {
-                objEl.remove(key);
-            }
+    /**
+     * Returns the sentiment cache of this worker, creating it on first use
+     */
+    private static synchronized SentimentCache getSentimentCache(TwitterProcessorOptions options) {
+        if (sharedSentimentCache == null) {
+            sharedSentimentCache = new SentimentCache(options.getSentimentCacheSize(), TimeUnit.SECONDS.toMillis(options.getSentimentCacheTtl()));
+        }
+        return sharedSentimentCache;
+    }
 
-            return objEl;
-        } else {
-            return el;
+    /**
+     * Returns the executor running the Natural Language API requests of this worker, creating it on first use
+     * <p>
+     * The pool is fixed at the maximum number of requests in flight, so the limit holds for the whole
+     * worker however many threads process bundles, and it matches the size of the connection pool.
+     */
+    private static synchronized ExecutorService getAnnotationExecutor(TwitterProcessorOptions options) {
+        if (sharedAnnotationExecutor == null) {
+            sharedAnnotationExecutor = Executors.newFixedThreadPool(Math.max(1, options.getLanguageApiMaxInFlight()), new ThreadFactoryBuilder().setDaemon(true).setNameFormat("sentiment-annotator-%d").build());
         }
+        return sharedAnnotationExecutor;
+    }
+
+    /**
+     * Creates a pooled, keep-alive HTTP transport trusting Google certificates
+     */
+    private static HttpTransport createHttpTransport(int maxConnections) throws IOException, GeneralSecurityException {
+        ApacheHttpTransport.Builder builder = new ApacheHttpTransport.Builder().trustCertificates(GoogleUtils.getCertificateTrustStore());
+        HttpParams params = builder.getHttpParams();
+        ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnections));
+        return builder.build();
+    }
+
+    /**
+     * Analyzes the sentiment of a text with the Natural Language API
+     */
+    private static Sentiment analyzeSentiment(CloudNaturalLanguageAPI languageApi, String text) throws IOException {
+        AnalyzeSentimentRequest request = new AnalyzeSentimentRequest().setDocument(new Document().setContent(text).setType("PLAIN_TEXT"));
+        CloudNaturalLanguageAPI.Documents.AnalyzeSentiment analyze = languageApi.documents().analyzeSentiment(request);
 
+        AnalyzeSentimentResponse response = analyze.execute();
+        return response.getDocumentSentiment();
     }
 
     /**
-     * Creates a TableRow object from its String JSON representation, using a JsonFactory
+     * Returns the transcoder of this worker from JSON messages to TableRows, compiling it on first use
+     */
+    private static synchronized TweetTranscoder getTweetTranscoder() throws IOException {
+        if (sharedTweetTranscoder == null) {
+            sharedTweetTranscoder = new TweetTranscoder(createTableSchema(TWEETS_TABLE_SCHEMA));
+        }
+        return sharedTweetTranscoder;
+    }
+
+    /**
+     * Creates a TableRow object from its String JSON representation, using the schema-compiled transcoder
      */
     private static TableRow createTableRow(String tweet) throws IOException {
-        JsonObject jsonTweet = (JsonObject) cleanup(new JsonParser().parse(tweet).getAsJsonObject());
-        return JacksonFactory.getDefaultInstance().fromString(jsonTweet.toString(), TableRow.class);
+        return getTweetTranscoder().transcode(tweet);
+    }
+
+    /**
+     * Returns the value of a String field of a TableRow, or null if it is missing
+     */
+    private static String getString(TableRow row, String key) {
+        Object value = row.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     * Creates the TableSchema of the table collecting messages that could not be parsed
+     */
+    private static TableSchema createMalformedTweetsTableSchema() {
+        return new TableSchema().setFields(Arrays.asList(
+                new TableFieldSchema().setName("message").setType("STRING").setMode("NULLABLE"),
+                new TableFieldSchema().setName("error").setType("STRING").setMode("NULLABLE")));
     }
 
     /**
      * Creates a TableSchema from its String JSON representation, using a JsonFactory
      */
-    private static TableSchema createTableSchema(String schema) throws IOException {
+    static TableSchema createTableSchema(String schema) throws IOException {
         return JacksonFactory.getDefaultInstance().fromString(schema, TableSchema.class);
     }
 }
@@ -0,0 +1,115 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.cloud.dataflow.sdk.coders.Coder;
+import com.google.cloud.dataflow.sdk.util.CoderUtils;
+import com.google.cloud.dataflow.sdk.util.SerializableUtils;
+import com.google.gson.JsonParseException;
+
+/**
+ * Checks that the rows and tweets of the benchmark corpus survive a round trip through the coders
+ * used between the stages of the pipeline
+ */
+@RunWith(JUnit4.class)
+public class CoderRoundTripTest {
+
+    // Shared with the benchmarks, see src/jmh/resources
+    private static final String CORPUS = "tweets-corpus.jsonl";
+
+    private static final List<Coder.Context> CONTEXTS = Arrays.asList(Coder.Context.OUTER, Coder.Context.NESTED);
+
+    private static List<TableRow> rows;
+
+    @BeforeClass
+    public static void transcodeCorpus() throws IOException {
+        TweetTranscoder transcoder = new TweetTranscoder(TwitterProcessor.createTableSchema(TwitterProcessor.TWEETS_TABLE_SCHEMA));
+        rows = new ArrayList<TableRow>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(CoderRoundTripTest.class.getResourceAsStream(CORPUS), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    rows.add(transcoder.transcode(line));
+                } catch (JsonParseException e) {
+                    // Malformed messages never become rows
+                }
+            }
+        }
+        assertFalse("The corpus has no well-formed tweets", rows.isEmpty());
+    }
+
+    @Test
+    public void testCompactCoderRoundTripsAnnotatedRows() throws IOException {
+        // The pipeline registers the coder compiled from the annotated tweets schema for all the rows
+        Coder<TableRow> coder = SerializableUtils.clone(CompactTableRowCoder.of(TwitterProcessor.ANNOTATED_TWEETS_TABLE_SCHEMA));
+        for (TableRow row : rows) {
+            assertRoundTrip(coder, row);
+            assertRoundTrip(coder, new Tweet(row, true).toAnnotatedRow(0.4f, 1.2f));
+            assertRoundTrip(coder, new Tweet(row, true).toAnnotatedRow(null, null));
+        }
+    }
+
+    @Test
+    public void testCompactCoderRoundTripsRowsOutsideTheSchema() throws IOException {
+        Coder<TableRow> coder = CompactTableRowCoder.of(TwitterProcessor.ANNOTATED_TWEETS_TABLE_SCHEMA);
+        assertRoundTrip(coder, new TableRow().set("message", "{\"text\":").set("error", "End of input"));
+        assertRoundTrip(coder, new TableRow()
+                .set("window_start", "2016-11-25 14:00:00")
+                .set("tweets", 5L)
+                .set("polarity_mean", 0.37615017890930175)
+                .set("top_hashtags", Arrays.asList(new TableRow().set("value", "blackfriday").set("count", 5L)))
+                .set("top_retailers", new ArrayList<TableRow>()));
+    }
+
+    @Test
+    public void testTweetCoderRoundTripsTweets() throws IOException {
+        Coder<Tweet> coder = SerializableUtils.clone(TweetCoder.of());
+        for (TableRow row : rows) {
+            for (boolean matched : new boolean[] { true, false }) {
+                for (Coder.Context context : CONTEXTS) {
+                    Tweet decoded = CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, new Tweet(row, matched), context), context);
+                    assertEquals(row, decoded.getRow());
+                    assertEquals(matched, decoded.isMatched());
+                }
+            }
+        }
+    }
+
+    private static void assertRoundTrip(Coder<TableRow> coder, TableRow row) throws IOException {
+        for (Coder.Context context : CONTEXTS) {
+            assertEquals(row, CoderUtils.decodeFromByteArray(coder, CoderUtils.encodeToByteArray(coder, row, context), context));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks the keywords found by the matcher, against overlapping keywords, case, hashtags and word
+ * boundaries
+ */
+@RunWith(JUnit4.class)
+public class KeywordMatcherTest {
+
+    @Test
+    public void testOverlappingKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("he", "she", "his", "hers"));
+        assertTrue(matcher.matches("ushers"));
+        assertTrue(matcher.matches("this"));
+        assertTrue(matcher.matches("sHE"));
+        assertFalse(matcher.matches("hi sh"));
+        // "he" and "she" end inside "hers", so none of them is a whole word
+        assertEquals(Collections.<String>emptySet(), matcher.findWords("ushers"));
+        assertEquals(set("she", "hers"), matcher.findWords("she said: hers!"));
+        assertEquals(set("he", "his"), matcher.findWords("he lost his way"));
+    }
+
+    @Test
+    public void testMixedCase() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("Black Friday", "walmart"));
+        assertTrue(matcher.matches("BLACK FRIDAY doorbusters"));
+        assertTrue(matcher.matches("deals at WalMart"));
+        assertFalse(matcher.matches("Cyber Monday"));
+        // Keywords are returned as given
+        assertEquals(set("Black Friday", "walmart"), matcher.findWords("black friday at WALMART"));
+    }
+
+    @Test
+    public void testHashtags() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("blackfriday", "#target"));
+        // A hash sign is not part of a word, so plain keywords are found in hashtags
+        assertEquals(set("blackfriday"), matcher.findWords("#BlackFriday is here"));
+        assertEquals(set("blackfriday"), matcher.findWords("@BlackFriday"));
+        assertEquals(Collections.<String>emptySet(), matcher.findWords("#BlackFriday2016"));
+        // Keywords with a hash sign are found only in hashtags
+        assertEquals(set("#target"), matcher.findWords("shopping at #Target"));
+        assertFalse(matcher.matches("shopping at Target"));
+    }
+
+    @Test
+    public void testEmptyKeywordList() {
+        for (KeywordMatcher matcher : Arrays.asList(new KeywordMatcher(new ArrayList<String>()), new KeywordMatcher(Arrays.asList("")))) {
+            assertFalse(matcher.matches(""));
+            assertFalse(matcher.matches("Black Friday"));
+            assertEquals(Collections.<String>emptySet(), matcher.findWords("Black Friday"));
+        }
+        assertFalse(TweetFilter.of(" , ,", "en").accept("Black Friday", "en"));
+    }
+
+    @Test
+    public void testMultiWordKeywords() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("best buy", "buy", "best"));
+        assertEquals(set("best buy", "best", "buy"), matcher.findWords("Lines at Best Buy!"));
+        assertEquals(set("best buy", "best", "buy"), matcher.findWords("best buy"));
+        // A hyphen ends a word
+        assertEquals(set("best", "buy"), matcher.findWords("the best-buyers buy here"));
+        assertEquals(set("best"), matcher.findWords("best buyer"));
+        assertEquals(Collections.<String>emptySet(), matcher.findWords("bestbuy"));
+        assertEquals(Collections.<String>emptySet(), matcher.findWords("rebest buys"));
+    }
+
+    @Test
+    public void testWordBoundaries() {
+        KeywordMatcher matcher = new KeywordMatcher(Arrays.asList("target", "gap"));
+        assertEquals(set("target", "gap"), matcher.findWords("Target,gap."));
+        assertEquals(set("target"), matcher.findWords("(target)"));
+        assertEquals(Collections.<String>emptySet(), matcher.findWords("targeted singapore gap2"));
+        // Letters outside ASCII are letters too
+        assertEquals(Collections.<String>emptySet(), matcher.findWords("Target\u00e8 \u00e0gap"));
+        // Containment ignores word boundaries
+        assertTrue(matcher.matches("targeted"));
+        assertTrue(matcher.matches("singapore"));
+    }
+
+    @Test
+    public void testMatchesAgreesWithNaiveSearch() {
+        // A small alphabet makes overlaps between keywords and failure transitions frequent
+        Random random = new Random(7);
+        for (int round = 0; round < 500; round++) {
+            List<String> keywords = new ArrayList<String>();
+            Set<String> distinct = new HashSet<String>();
+            for (int k = random.nextInt(6); k > 0; k--) {
+                // Keywords that differ only in case end in the same state, and the last one wins
+                String keyword = randomText(random, 1 + random.nextInt(4));
+                if (distinct.add(keyword.toLowerCase())) {
+                    keywords.add(keyword);
+                }
+            }
+            KeywordMatcher matcher = new KeywordMatcher(keywords);
+            for (int t = 0; t < 20; t++) {
+                String text = randomText(random, random.nextInt(30));
+                assertEquals(keywords + " in " + text, naiveFindWords(keywords, text), matcher.findWords(text));
+                assertEquals(keywords + " in " + text, naiveMatches(keywords, text), matcher.matches(text));
+            }
+        }
+    }
+
+    private static String randomText(Random random, int length) {
+        String alphabet = "abAB ";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return text.toString();
+    }
+
+    private static boolean naiveMatches(List<String> keywords, String text) {
+        for (String keyword : keywords) {
+            if (!keyword.isEmpty() && text.toLowerCase().contains(keyword.toLowerCase())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> naiveFindWords(List<String> keywords, String text) {
+        Set<String> found = new HashSet<String>();
+        for (String keyword : keywords) {
+            String lowerText = text.toLowerCase();
+            for (int i = lowerText.indexOf(keyword.toLowerCase()); i >= 0; i = lowerText.indexOf(keyword.toLowerCase(), i + 1)) {
+                int end = i + keyword.length();
+                if ((i == 0 || !Character.isLetterOrDigit(text.charAt(i - 1))) && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)))) {
+                    found.add(keyword);
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Set<String> set(String... keywords) {
+        return new HashSet<String>(Arrays.asList(keywords));
+    }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.api.services.language.v1beta1.model.Sentiment;
+
+/**
+ * Checks the normalization of the keys of the sentiment cache, and its LRU and time-to-live policies
+ */
+@RunWith(JUnit4.class)
+public class SentimentCacheTest {
+
+    private static final Sentiment POSITIVE = new Sentiment().setPolarity(0.8f).setMagnitude(1.5f);
+    private static final Sentiment NEGATIVE = new Sentiment().setPolarity(-0.6f).setMagnitude(0.9f);
+    private static final Sentiment NEUTRAL = new Sentiment().setPolarity(0f).setMagnitude(0.1f);
+
+    @Test
+    public void testNormalizeRemovesRetweetPrefixes() {
+        assertEquals("Doorbusters are live #BlackFriday", SentimentCache.normalize("RT @deals: Doorbusters are live #BlackFriday"));
+        assertEquals("Doorbusters are live #BlackFriday", SentimentCache.normalize("RT @a: RT @b_2:  RT @c: Doorbusters are live #BlackFriday"));
+        // Only a leading prefix is removed
+        assertEquals("Agreed, RT @deals: doorbusters", SentimentCache.normalize("Agreed, RT @deals: doorbusters"));
+    }
+
+    @Test
+    public void testNormalizeRemovesUrlsAndRedundantWhitespace() {
+        assertEquals("60% off TVs today", SentimentCache.normalize("60% off https://t.co/abc123 TVs\n\ttoday  http://t.co/x "));
+        assertEquals("deals", SentimentCache.normalize("RT @deals: deals https://t.co/abc123"));
+        assertEquals("", SentimentCache.normalize(" https://t.co/abc123 "));
+    }
+
+    @Test
+    public void testCopiesOfATweetShareTheKey() {
+        String original = SentimentCache.normalize("Line around the block #BlackFriday https://t.co/geo1");
+        assertEquals(original, SentimentCache.normalize("RT @nyc_walker: Line around the block #BlackFriday https://t.co/geo2"));
+        assertEquals(original, SentimentCache.normalize("Line  around the block\n#BlackFriday"));
+    }
+
+    @Test
+    public void testGetReturnsCachedSentiments() {
+        SentimentCache cache = new SentimentCache(10, 60000);
+        assertNull(cache.get("doorbusters"));
+        cache.put("doorbusters", POSITIVE);
+        assertSame(POSITIVE, cache.get("doorbusters"));
+        cache.put("doorbusters", NEGATIVE);
+        assertSame(NEGATIVE, cache.get("doorbusters"));
+    }
+
+    @Test
+    public void testEntriesExpireAfterTheTimeToLive() throws InterruptedException {
+        SentimentCache cache = new SentimentCache(10, 1);
+        cache.put("doorbusters", POSITIVE);
+        Thread.sleep(10);
+        assertNull(cache.get("doorbusters"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntryIsEvictedAtMaxSize() {
+        SentimentCache cache = new SentimentCache(2, 60000);
+        cache.put("a", POSITIVE);
+        cache.put("b", NEGATIVE);
+        // Reading "a" makes "b" the least recently used entry
+        assertSame(POSITIVE, cache.get("a"));
+        cache.put("c", NEUTRAL);
+        assertNull(cache.get("b"));
+        assertSame(POSITIVE, cache.get("a"));
+        assertSame(NEUTRAL, cache.get("c"));
+    }
+}
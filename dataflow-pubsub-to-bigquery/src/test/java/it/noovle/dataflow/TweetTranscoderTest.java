@@ -0,0 +1,202 @@
+/* Copyright 2016 Noovle Inc. All Rights Reserved.
+*
+* Licensed under the Apache License, Version 2.0 (the "License");
+* you may not use this file except in compliance with the License.
+* You may obtain a copy of the License at
+*
+*      http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+package it.noovle.dataflow;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SimpleTimeZone;
+import java.util.TimeZone;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.gson.JsonSyntaxException;
+
+/**
+ * Checks the rows written by the transcoder: dates moved to UTC, flattened coordinates, stringified
+ * attributes, and the values dropped because they are null or not part of the schema
+ */
+@RunWith(JUnit4.class)
+public class TweetTranscoderTest {
+
+    private static final String SCHEMA = "{\"fields\":["
+            + "{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},"
+            + "{\"type\":\"INTEGER\",\"name\":\"id\",\"mode\":\"NULLABLE\"},"
+            + "{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},"
+            + "{\"type\":\"BOOLEAN\",\"name\":\"truncated\",\"mode\":\"NULLABLE\"},"
+            + "{\"fields\":[{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},{\"type\":\"TIMESTAMP\",\"name\":\"created_at\",\"mode\":\"NULLABLE\"},"
+            + "{\"type\":\"INTEGER\",\"name\":\"utc_offset\",\"mode\":\"NULLABLE\"}],\"type\":\"RECORD\",\"name\":\"user\",\"mode\":\"NULLABLE\"},"
+            + "{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],"
+            + "\"type\":\"RECORD\",\"name\":\"coordinates\",\"mode\":\"NULLABLE\"},"
+            + "{\"fields\":[{\"type\":\"STRING\",\"name\":\"name\",\"mode\":\"NULLABLE\"},"
+            + "{\"fields\":[{\"type\":\"STRING\",\"name\":\"type\",\"mode\":\"NULLABLE\"},{\"type\":\"FLOAT\",\"name\":\"coordinates\",\"mode\":\"REPEATED\"}],"
+            + "\"type\":\"RECORD\",\"name\":\"bounding_box\",\"mode\":\"NULLABLE\"},{\"type\":\"STRING\",\"name\":\"attributes\",\"mode\":\"NULLABLE\"}],"
+            + "\"type\":\"RECORD\",\"name\":\"place\",\"mode\":\"NULLABLE\"},"
+            + "{\"fields\":[{\"fields\":[{\"type\":\"STRING\",\"name\":\"text\",\"mode\":\"NULLABLE\"},{\"type\":\"INTEGER\",\"name\":\"indices\",\"mode\":\"REPEATED\"}],"
+            + "\"type\":\"RECORD\",\"name\":\"hashtags\",\"mode\":\"REPEATED\"}],\"type\":\"RECORD\",\"name\":\"entities\",\"mode\":\"NULLABLE\"}"
+            + "]}";
+
+    private static TweetTranscoder transcoder;
+
+    @BeforeClass
+    public static void compileTranscoder() throws IOException {
+        transcoder = new TweetTranscoder(TwitterProcessor.createTableSchema(SCHEMA));
+    }
+
+    @Test
+    public void testFormatDateInUtc() {
+        assertEquals("2016-10-18 07:01:50", TweetTranscoder.formatDate("Tue Oct 18 07:01:50 +0000 2016"));
+        assertEquals("2016-11-25 14:00:00", TweetTranscoder.formatDate("Fri Nov 25 14:00:00 +0000 2016"));
+    }
+
+    @Test
+    public void testFormatDateWithOffsetsAcrossBoundaries() {
+        // Day
+        assertEquals("2016-10-17 23:30:00", TweetTranscoder.formatDate("Tue Oct 18 01:30:00 +0200 2016"));
+        assertEquals("2016-10-19 02:15:09", TweetTranscoder.formatDate("Tue Oct 18 20:45:09 -0530 2016"));
+        // Month, in leap and non-leap years
+        assertEquals("2016-02-29 23:00:00", TweetTranscoder.formatDate("Tue Mar 01 01:00:00 +0200 2016"));
+        assertEquals("2015-02-28 23:00:00", TweetTranscoder.formatDate("Sun Mar 01 01:00:00 +0200 2015"));
+        assertEquals("2000-02-29 00:30:00", TweetTranscoder.formatDate("Mon Feb 28 23:00:00 -0130 2000"));
+        assertEquals("1900-02-28 23:00:00", TweetTranscoder.formatDate("Thu Mar 01 00:00:00 +0100 1900"));
+        // Year
+        assertEquals("2016-12-31 23:30:00", TweetTranscoder.formatDate("Sun Jan 01 00:30:00 +0100 2017"));
+        assertEquals("2017-01-01 03:30:00", TweetTranscoder.formatDate("Sat Dec 31 22:00:00 -0530 2016"));
+        assertEquals("2017-01-01 13:59:59", TweetTranscoder.formatDate("Sat Dec 31 23:59:59 -1400 2016"));
+    }
+
+    @Test
+    public void testFormatDateMatchesSimpleDateFormat() throws ParseException {
+        SimpleDateFormat reader = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.ENGLISH);
+        reader.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat writer = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.ENGLISH);
+        writer.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            // Any instant between 1970 and 2100, in a random time zone with an offset of whole minutes
+            Date date = new Date((long) (random.nextDouble() * 4102444800000L));
+            int offsetMinutes = random.nextInt(28 * 60 + 1) - 14 * 60;
+            SimpleDateFormat twitter = new SimpleDateFormat("EEE MMM dd HH:mm:ss Z yyyy", Locale.ENGLISH);
+            twitter.setTimeZone(new SimpleTimeZone(offsetMinutes * 60000, "Test"));
+            String twitterDate = twitter.format(date);
+            assertEquals(twitterDate, writer.format(reader.parse(twitterDate)), TweetTranscoder.formatDate(twitterDate));
+        }
+    }
+
+    @Test
+    public void testFormatDateRejectsMalformedDates() {
+        assertNull(TweetTranscoder.formatDate(""));
+        assertNull(TweetTranscoder.formatDate("2016-10-18 07:01:50"));
+        assertNull(TweetTranscoder.formatDate("Tue Oct 18 07:01:50 +0000 16"));
+        assertNull(TweetTranscoder.formatDate("Tue Foo 18 07:01:50 +0000 2016"));
+        assertNull(TweetTranscoder.formatDate("Tue Oct 1x 07:01:50 +0000 2016"));
+        assertNull(TweetTranscoder.formatDate("Tue Oct 18 07:01:50 *0000 2016"));
+        assertNull(TweetTranscoder.formatDate("Tue Oct 18 07-01-50 +0000 2016"));
+    }
+
+    @Test
+    public void testMalformedDatesAreKeptAndCounted() {
+        TweetTranscoder.drainDateParseFailures();
+        TableRow row = transcoder.transcode("{\"created_at\":\"yesterday\",\"user\":{\"created_at\":\"Tue Oct 18 07:01:50 +0000 16\"},\"id\":1}");
+        assertEquals("yesterday", row.get("created_at"));
+        assertEquals("Tue Oct 18 07:01:50 +0000 16", ((TableRow) row.get("user")).get("created_at"));
+        assertEquals(2L, TweetTranscoder.drainDateParseFailures());
+        assertEquals(0L, TweetTranscoder.drainDateParseFailures());
+    }
+
+    @Test
+    public void testNestedDatesAreFormatted() {
+        TableRow row = transcoder.transcode("{\"created_at\":\"Tue Oct 18 01:30:00 +0200 2016\",\"user\":{\"created_at\":\"Sun Jan 01 00:30:00 +0100 2017\"}}");
+        assertEquals(new TableRow()
+                .set("created_at", "2016-10-17 23:30:00")
+                .set("user", new TableRow().set("created_at", "2016-12-31 23:30:00")), row);
+    }
+
+    @Test
+    public void testCoordinatesAreFlattened() {
+        TableRow row = transcoder.transcode("{"
+                + "\"coordinates\":{\"type\":\"Point\",\"coordinates\":[-73.98,40.75]},"
+                + "\"place\":{\"bounding_box\":{\"type\":\"Polygon\",\"coordinates\":[[[-74.02,40.70],[-73.91,40.70],[-73.91,40.87],[-74.02,40.87]]]}}}");
+        assertEquals(new TableRow()
+                .set("coordinates", new TableRow().set("type", "Point").set("coordinates", Arrays.asList(-73.98, 40.75)))
+                .set("place", new TableRow().set("bounding_box", new TableRow().set("type", "Polygon")
+                        .set("coordinates", Arrays.asList(-74.02, 40.70, -73.91, 40.70, -73.91, 40.87, -74.02, 40.87)))), row);
+    }
+
+    @Test
+    public void testAttributesAreStringified() {
+        assertEquals(new TableRow().set("place", new TableRow().set("name", "Manhattan").set("attributes", "{\"street_address\":\"7th Ave\",\"floor\":3}")),
+                transcoder.transcode("{\"place\":{\"name\":\"Manhattan\",\"attributes\":{\"street_address\":\"7th Ave\",\"floor\":3}}}"));
+        assertEquals(new TableRow().set("place", new TableRow().set("attributes", "{}")),
+                transcoder.transcode("{\"place\":{\"attributes\":{}}}"));
+    }
+
+    @Test
+    public void testNullsAreDropped() {
+        TableRow row = transcoder.transcode("{\"id\":null,\"text\":\"#BlackFriday\",\"truncated\":false,"
+                + "\"user\":{\"name\":null,\"utc_offset\":-18000},"
+                + "\"coordinates\":{\"type\":null,\"coordinates\":[-73.98,null,40.75]},"
+                + "\"entities\":{\"hashtags\":[null,{\"text\":\"BlackFriday\",\"indices\":[0,null,12]}]},"
+                + "\"place\":null}");
+        assertEquals(new TableRow()
+                .set("text", "#BlackFriday")
+                .set("truncated", false)
+                .set("user", new TableRow().set("utc_offset", -18000L))
+                .set("coordinates", new TableRow().set("coordinates", Arrays.asList(-73.98, 40.75)))
+                .set("entities", new TableRow().set("hashtags", Collections.singletonList(
+                        new TableRow().set("text", "BlackFriday").set("indices", Arrays.asList(0L, 12L))))), row);
+    }
+
+    @Test
+    public void testFieldsOutsideTheSchemaAreDropped() {
+        TableRow row = transcoder.transcode("{\"id\":801823401234567168,\"quoted_status\":{\"id\":1,\"text\":\"nested\"},\"display_text_range\":[0,140],"
+                + "\"user\":{\"name\":\"Best Deals Store\",\"followers\":[1,2],\"withheld_in_countries\":{}},"
+                + "\"entities\":{\"hashtags\":[],\"polls\":[{\"options\":[]}]},"
+                + "\"text\":{\"not\":\"a string\"}}");
+        assertEquals(new TableRow()
+                .set("id", 801823401234567168L)
+                .set("user", new TableRow().set("name", "Best Deals Store"))
+                .set("entities", new TableRow().set("hashtags", new ArrayList<Object>())), row);
+    }
+
+    @Test
+    public void testIntegersOutsideTheLongRangeAreKept() {
+        assertEquals(new TableRow().set("id", new BigDecimal("123456789012345678901")), transcoder.transcode("{\"id\":123456789012345678901}"));
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testTruncatedMessagesAreRejected() {
+        transcoder.transcode("{\"id\":1,\"text\":\"#BlackFri");
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void testMessagesThatAreNotObjectsAreRejected() {
+        transcoder.transcode("[{\"id\":1}]");
+    }
+}